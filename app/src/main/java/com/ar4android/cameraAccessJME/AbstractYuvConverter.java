@@ -0,0 +1,352 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.texture.Image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Base class of the conversion kernels which holds their output configuration.
+ * <p>
+ * Subclasses implement {@link #convertRows} for full-resolution frames and {@link #toRgb} for
+ * single pixels, which the downscaling path shared by all kernels is built on. The helpers in
+ * here are final so the kernels' inner loops can have them inlined.
+ */
+public abstract class AbstractYuvConverter implements YuvConverter {
+
+    /**
+     * How the pixels of a block are combined when downscaling.
+     */
+    public enum ScaleFilter {
+        /**
+         * Averages every luminance sample of the block.
+         */
+        BOX,
+        /**
+         * Interpolates at the block centre, i.e. averages the 2x2 luminance samples around it.
+         * Cheaper than {@link #BOX} at 4x, identical at 2x.
+         */
+        BILINEAR
+    }
+
+    private Image.Format mOutputFormat = Image.Format.RGB565;
+    private YuvColorMatrix mColorMatrix = YuvColorMatrix.BT601_FULL;
+    private int mDownscale = 1;
+    private ScaleFilter mScaleFilter = ScaleFilter.BOX;
+    private int mRotation;
+    private boolean mMirrored;
+
+    /**
+     * Selects the JME image format the frames are converted into.
+     *
+     * @param format One of {@link Image.Format#RGB565}, {@link Image.Format#RGB8},
+     *               {@link Image.Format#RGBA8} or {@link Image.Format#Luminance8}
+     */
+    public void setOutputFormat(Image.Format format) {
+        switch (format) {
+            case RGB565:
+            case RGB8:
+            case RGBA8:
+            case Luminance8:
+                mOutputFormat = format;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported output format " + format);
+        }
+    }
+
+    @Override
+    public Image.Format getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    /**
+     * Selects the YCbCr to RGB conversion matching the camera's output. Only affects the RGB
+     * formats, {@link Image.Format#Luminance8} always carries the luminance samples unchanged.
+     *
+     * @param colorMatrix The colour matrix and range of the frames, by default
+     *                    {@link YuvColorMatrix#BT601_FULL}
+     */
+    public void setColorMatrix(YuvColorMatrix colorMatrix) {
+        mColorMatrix = colorMatrix;
+    }
+
+    public YuvColorMatrix getColorMatrix() {
+        return mColorMatrix;
+    }
+
+    /**
+     * Makes the converter decimate the frames while converting them, so fewer pixels have to be
+     * converted, stored and uploaded.
+     *
+     * @param factor 1 to keep the full resolution, 2 or 4 to divide both dimensions by it
+     * @param filter How the pixels of a factor x factor block are combined
+     */
+    public void setDownscale(int factor, ScaleFilter filter) {
+        if (factor != 1 && factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("Unsupported downscale factor " + factor);
+        }
+        mDownscale = factor;
+        mScaleFilter = filter;
+    }
+
+    public int getDownscale() {
+        return mDownscale;
+    }
+
+    /**
+     * Makes the converter emit the frames rotated and/or mirrored. Both are done while storing
+     * the converted pixels, so they cost no extra pass over the image.
+     *
+     * @param rotation The clockwise rotation in degrees, 0, 90, 180 or 270
+     * @param mirrored Whether the frames are flipped horizontally before they are rotated, as
+     *                 needed to show the image of a front facing camera like a mirror
+     */
+    public void setOrientation(int rotation, boolean mirrored) {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Unsupported rotation " + rotation);
+        }
+        mRotation = rotation;
+        mMirrored = mirrored;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirrored;
+    }
+
+    @Override
+    public int getRowCount(int frameWidth, int frameHeight) {
+        return frameHeight / mDownscale;
+    }
+
+    @Override
+    public int getOutputWidth(int frameWidth, int frameHeight) {
+        return (mRotation == 90 || mRotation == 270 ? frameHeight : frameWidth) / mDownscale;
+    }
+
+    @Override
+    public int getOutputHeight(int frameWidth, int frameHeight) {
+        return (mRotation == 90 || mRotation == 270 ? frameWidth : frameHeight) / mDownscale;
+    }
+
+    @Override
+    public void convert(CameraFrame frame, ByteBuffer out) {
+        // multi-byte pixels as expected by JME are stored little-endian
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        convertRows(frame, out, 0, getRowCount(frame.getWidth(), frame.getHeight()));
+    }
+
+    // The kernels walk the source image row by row and find the destination of its pixel (x, y)
+    // at firstPixel + x * columnStep + y * rowStep, which covers every rotation and mirroring.
+
+    /**
+     * @param width  The width of the source image as walked by the kernel, i.e. after downscaling
+     * @param height The height of the source image as walked by the kernel
+     * @return The destination pixel index of the source pixel (0, 0)
+     */
+    protected final int getFirstPixel(int width, int height) {
+        int first;
+        switch (mRotation) {
+            case 90:
+                first = height - 1;
+                break;
+            case 180:
+                first = width * height - 1;
+                break;
+            case 270:
+                first = (width - 1) * height;
+                break;
+            default:
+                first = 0;
+                break;
+        }
+        if (mMirrored) {
+            // the first pixel is written where the last one of the row would have gone
+            first += (width - 1) * getUnmirroredColumnStep(height);
+        }
+        return first;
+    }
+
+    /**
+     * @return The distance in pixels between the destinations of two neighbouring source pixels
+     */
+    protected final int getColumnStep(int width, int height) {
+        final int step = getUnmirroredColumnStep(height);
+        return mMirrored ? -step : step;
+    }
+
+    /**
+     * @return The distance in pixels between the destinations of two neighbouring source rows
+     */
+    protected final int getRowStep(int width, int height) {
+        switch (mRotation) {
+            case 90:
+                return -1;
+            case 180:
+                return -width;
+            case 270:
+                return 1;
+            default:
+                return width;
+        }
+    }
+
+    private int getUnmirroredColumnStep(int height) {
+        switch (mRotation) {
+            case 90:
+                return height;
+            case 180:
+                return -1;
+            case 270:
+                return -height;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Converts a single pixel.
+     *
+     * @param Y  The luminance sample, 0..255
+     * @param Cb The Cb sample, 0..255
+     * @param Cr The Cr sample, 0..255
+     * @return The clamped channels packed as 0x00RRGGBB
+     */
+    protected abstract int toRgb(int Y, int Cb, int Cr);
+
+    /**
+     * @return The number of bytes a pixel of {@link #getOutputFormat()} takes up
+     */
+    protected final int getBytesPerPixel() {
+        return mOutputFormat.getBitsPerPixel() / 8;
+    }
+
+    /**
+     * Converts rows into {@link Image.Format#Luminance8}, which only needs the luminance plane.
+     */
+    protected final void convertLuminanceRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final int yOffset = frame.getYOffset();
+        final int yRowStride = frame.getYRowStride();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int columnStep = getColumnStep(width, height);
+        final int rowStep = getRowStep(width, height);
+        final int firstPtr = getFirstPixel(width, height);
+
+        for (int row = startRow; row < endRow; row++) {
+            int outPtr = firstPtr + row * rowStep;
+            int yPtr = yOffset + row * yRowStride;
+            final int yEnd = yPtr + width;
+            while (yPtr < yEnd) {
+                out.put(outPtr, yBuf.get(yPtr++));
+                outPtr += columnStep;
+            }
+        }
+    }
+
+    /**
+     * Converts rows of a frame decimated by {@link #getDownscale()}. The luminance is filtered
+     * as selected by the {@link ScaleFilter}; as the chroma planes are subsampled already, their
+     * samples covering a block are always averaged. Any output row may start a band here.
+     */
+    protected final void convertScaledRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yOffset = frame.getYOffset();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int scale = mDownscale;
+        final int scaledWidth = frame.getWidth() / scale;
+        final int scaledHeight = frame.getHeight() / scale;
+        final Image.Format format = mOutputFormat;
+        final int bytesPerPixel = getBytesPerPixel();
+        final int columnStep = getColumnStep(scaledWidth, scaledHeight) * bytesPerPixel;
+        final int rowStep = getRowStep(scaledWidth, scaledHeight) * bytesPerPixel;
+        final int firstPtr = getFirstPixel(scaledWidth, scaledHeight) * bytesPerPixel;
+
+        // the luminance taps of a block: all of them for BOX, the centre 2x2 for BILINEAR
+        final int lumaTaps = mScaleFilter == ScaleFilter.BOX ? scale : 2;
+        final int lumaFirst = (scale - lumaTaps) / 2;
+        final int lumaShift = lumaTaps == 4 ? 4 : 2;
+        // the chroma samples of a block, 1x1 at 2x and 2x2 at 4x
+        final int chromaTaps = scale / 2;
+        final int chromaShift = chromaTaps == 2 ? 2 : 0;
+
+        for (int row = startRow; row < endRow; row++) {
+            int outPtr = firstPtr + row * rowStep;
+            final int yRow = yOffset + (row * scale + lumaFirst) * yRowStride + lumaFirst;
+            final int uvRow = row * chromaTaps * uvRowStride;
+            for (int col = 0; col < scaledWidth; col++) {
+                int ySum = 0;
+                int yPtr = yRow + col * scale;
+                for (int ty = 0; ty < lumaTaps; ty++) {
+                    for (int tx = 0; tx < lumaTaps; tx++) {
+                        ySum += yBuf.get(yPtr + tx) & 0xff;
+                    }
+                    yPtr += yRowStride;
+                }
+                // round to nearest
+                final int Y = (ySum + (1 << lumaShift >> 1)) >> lumaShift;
+
+                if (format == Image.Format.Luminance8) {
+                    out.put(outPtr, (byte) Y);
+                    outPtr += columnStep;
+                    continue;
+                }
+
+                int cbSum = 0;
+                int crSum = 0;
+                int uvPtr = uvRow + col * chromaTaps * uvPixelStride;
+                for (int ty = 0; ty < chromaTaps; ty++) {
+                    for (int tx = 0; tx < chromaTaps; tx++) {
+                        cbSum += uBuf.get(uOffset + uvPtr + tx * uvPixelStride) & 0xff;
+                        crSum += vBuf.get(vOffset + uvPtr + tx * uvPixelStride) & 0xff;
+                    }
+                    uvPtr += uvRowStride;
+                }
+                final int chromaRound = 1 << chromaShift >> 1;
+                final int rgb = toRgb(Y, (cbSum + chromaRound) >> chromaShift, (crSum + chromaRound) >> chromaShift);
+
+                putPackedRgb(out, outPtr, rgb, bytesPerPixel);
+                outPtr += columnStep;
+            }
+        }
+    }
+
+    /**
+     * Stores one pixel returned by {@link #toRgb} in any of the RGB output formats.
+     *
+     * @param bytesPerPixel Selects the format: 2 for RGB565, 3 for RGB8 and 4 for RGBA8
+     */
+    protected static void putPackedRgb(ByteBuffer out, int outPtr, int rgb, int bytesPerPixel) {
+        if (bytesPerPixel == 2) {
+            out.putShort(outPtr, (short) (((rgb >> 8) & 0xf800) | ((rgb >> 5) & 0x07e0) | ((rgb >> 3) & 0x1f)));
+        } else {
+            putRgb(out, outPtr, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, bytesPerPixel == 4);
+        }
+    }
+
+    /**
+     * Stores one pixel of already clamped channels in {@link Image.Format#RGB8} or
+     * {@link Image.Format#RGBA8} layout.
+     */
+    protected static void putRgb(ByteBuffer out, int outPtr, int R, int G, int B, boolean alpha) {
+        if (alpha) {
+            // R, G, B, A in memory order
+            out.putInt(outPtr, R | (G << 8) | (B << 16) | 0xff000000);
+        } else {
+            out.put(outPtr, (byte) R);
+            out.put(outPtr + 1, (byte) G);
+            out.put(outPtr + 2, (byte) B);
+        }
+    }
+}
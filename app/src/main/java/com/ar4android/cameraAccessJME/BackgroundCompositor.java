@@ -0,0 +1,90 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.material.RenderState;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.texture.FrameBuffer;
+
+/**
+ * Draws the video background as a fullscreen quad in the viewport of the 3D scene, before any
+ * of the scene's buckets, instead of in a viewport of its own.
+ * <p>
+ * The viewport only has to clear the depth buffer, as the background covers every pixel, and
+ * the scene is drawn on top of it with the viewport's camera. That saves the second viewport's
+ * traversal, its clears and the update of its camera every frame. The background neither tests
+ * nor writes depth, so the scene is never hidden by it.
+ */
+public class BackgroundCompositor implements SceneProcessor {
+
+    private final Geometry mBackground;
+    private RenderManager mRenderManager;
+    private ViewPort mViewPort;
+
+    /**
+     * @param background A quad of 1 x 1 with its corner at the origin, e.g. a
+     *                   {@link com.jme3.scene.shape.Quad}. It is scaled to the viewport and must
+     *                   not be attached to any scene.
+     */
+    public BackgroundCompositor(Geometry background) {
+        mBackground = background;
+        final RenderState renderState = background.getMaterial().getAdditionalRenderState();
+        renderState.setDepthTest(false);
+        renderState.setDepthWrite(false);
+        renderState.setFaceCullMode(RenderState.FaceCullMode.Off);
+    }
+
+    /**
+     * Adds the compositor to {@code viewPort}, which from then on only clears its depth buffer.
+     */
+    public static BackgroundCompositor attach(ViewPort viewPort, Geometry background) {
+        final BackgroundCompositor compositor = new BackgroundCompositor(background);
+        viewPort.setClearFlags(false, true, false);
+        viewPort.addProcessor(compositor);
+        return compositor;
+    }
+
+    @Override
+    public void initialize(RenderManager rm, ViewPort vp) {
+        mRenderManager = rm;
+        mViewPort = vp;
+        reshape(vp, vp.getCamera().getWidth(), vp.getCamera().getHeight());
+    }
+
+    @Override
+    public void reshape(ViewPort vp, int w, int h) {
+        // in the orthographic mode of the render manager a unit is a pixel
+        mBackground.setLocalTranslation(0, 0, 0);
+        mBackground.setLocalScale(w, h, 1);
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return mViewPort != null;
+    }
+
+    @Override
+    public void preFrame(float tpf) {
+        mBackground.updateLogicalState(tpf);
+        mBackground.updateGeometricState();
+    }
+
+    @Override
+    public void postQueue(RenderQueue rq) {
+        // the viewport was cleared and the scene queued but not drawn yet
+        mRenderManager.setCamera(mViewPort.getCamera(), true);
+        mRenderManager.renderGeometry(mBackground);
+        mRenderManager.setCamera(mViewPort.getCamera(), false);
+    }
+
+    @Override
+    public void postFrame(FrameBuffer out) {
+    }
+
+    @Override
+    public void cleanup() {
+        mViewPort = null;
+    }
+}
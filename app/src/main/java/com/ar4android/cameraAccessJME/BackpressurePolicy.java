@@ -0,0 +1,25 @@
+package com.ar4android.cameraAccessJME;
+
+/**
+ * What happens to camera frames which arrive while the frame before is still being processed.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Only the newest frame is processed, all frames which arrived meanwhile are dropped. Keeps
+     * the latency at one frame at most, at the cost of the frame rate under load.
+     */
+    LATEST_ONLY,
+
+    /**
+     * Frames are processed in order with up to a given number of them waiting. Once the queue is
+     * full the oldest waiting frame is dropped for the new one.
+     */
+    BOUNDED_QUEUE,
+
+    /**
+     * Frames are processed in order and never dropped here. Once the given number of frames is
+     * waiting the camera cannot deliver any more, so it slows down or drops frames on its own.
+     */
+    BLOCK_PRODUCER
+}
@@ -12,21 +12,26 @@ package com.ar4android.cameraAccessJME;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.pm.ActivityInfo;
+import android.hardware.display.DisplayManager;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.SurfaceHolder;
 import android.view.ViewGroup;
 
 import com.jme3.app.AndroidHarness;
+import com.jme3.math.Quaternion;
 import com.jme3.texture.Image;
 import com.jme3.texture.image.ColorSpace;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Timer;
@@ -46,8 +51,74 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 	private Camera2Preview mPreview;
 	private int mDesiredCameraPreviewWidth = 640;
 
-	private byte[] mPreviewBufferRGB565 = null;
-	java.nio.ByteBuffer mPreviewByteBufferRGB565;
+	// hands the converted frames to the render thread
+	FrameExchange<PooledFrame> mFrameExchange;
+	// recycles the buffers of the converted frames, shared by all consumers
+	protected FramePool mFramePool;
+	// converts the preview frames and passes them through the processing
+	// stages to mFrameExchange
+	protected FramePipeline mFramePipeline;
+	// converts the YUV_420_888 preview planes straight into frames from mFramePool
+	protected YuvConverter mYuvConverter;
+	// the kernel inside mYuvConverter, configured with the orientation of the frames
+	protected AbstractYuvConverter mYuvKernel;
+	// whether the frames are rotated (and mirrored for a front camera) to the display
+	protected boolean mFollowDisplayRotation;
+	// the orientation requested for the activity in onResume
+	protected int mScreenOrientation;
+	// turns the frames along when the display rotates; a turn between the two
+	// landscape orientations changes no configuration and does not recreate
+	// the activity
+	private DisplayManager mDisplayManager;
+	private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+		@Override
+		public void onDisplayAdded(int displayId) {
+		}
+
+		@Override
+		public void onDisplayRemoved(int displayId) {
+		}
+
+		@Override
+		public void onDisplayChanged(int displayId) {
+			onDisplayRotationChanged();
+		}
+	};
+	// what happens to preview frames arriving while the previous one is
+	// still being converted
+	protected BackpressurePolicy mBackpressurePolicy;
+	protected int mBackpressureQueueDepth;
+	// counts the frames dropped at every stage
+	private final FrameDropStats mFrameDropStats = new FrameDropStats();
+	// records how long after their exposure the frames reach every stage
+	private final FrameLatencyStats mFrameLatencyStats = new FrameLatencyStats();
+	// how often the latencies are dumped to logcat, 0 to only log them on pause
+	protected long mLatencyDumpIntervalMs;
+	// the file the dumped latencies are appended to, if any
+	protected File mLatencyDumpFile;
+	// the ring file the raw preview frames are recorded into, if any, its
+	// size and the space of a frame in it
+	protected File mRawFrameRecordingFile;
+	protected long mRawFrameRecordingBytes;
+	protected int mRawFrameSlotBytes;
+	private RawFrameRecorder mRawFrameRecorder;
+	// whether the frames are uploaded into two textures taking turns
+	protected boolean mDoubleBufferedUpload;
+	// whether the background and the 3D scene share the main viewport
+	protected boolean mSinglePassCompositing;
+	// steps the preview resolution down when the frames take longer than the
+	// frame budget and up again when there is room
+	protected PreviewResolutionController mResolutionController;
+	protected boolean mAdaptPreviewResolution;
+	// how often the measured frame times are checked against the budget
+	protected long mResolutionCheckIntervalMs;
+	// chooses the frame rate range of the camera, capped at the frame rate
+	// the renderer reaches
+	protected FrameRateGovernor mFrameRateGovernor;
+	// how often the render frame rate is measured
+	protected long mFrameRateCheckIntervalMs;
+	// delivers the frames instead of the camera, e.g. to run without one
+	protected FrameSource mFrameSource;
 	// the actual size of the preview images
 	int mPreviewWidth;
 	int mPreviewHeight;
@@ -102,6 +173,16 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 
 	private Timer fuseTimer = new Timer();
 
+	// whether the fused orientations are paired with the camera frames at their
+	// exposure time instead of being applied as soon as they are computed
+	protected boolean mSyncOrientationToFrames;
+	// the latest fused orientations, 64 samples of TIME_CONSTANT ms cover 3.2 s
+	private final OrientationHistory mOrientationHistory = new OrientationHistory(64);
+	// the fused orientation as passed to JmeARapplication.setRotation
+	private final Quaternion mFusedRotation = new Quaternion();
+	// the timestamp of the latest gyroscope event the fused orientation includes
+	private volatile long mGyroTimestampNs;
+
 	// calculates orientation angles from accelerometer and magnetometer output
 	public void calculateAccMagOrientation() {
 		if(SensorManager.getRotationMatrix(rotationMatrix, null, accel, magnet)) {
@@ -172,6 +253,7 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 
 		// measurement done, save current time for next interval
 		timestamp = event.timestamp;
+		mGyroTimestampNs = event.timestamp;
 
 		// convert rotation vector into rotation matrix
 		float[] deltaMatrix = new float[9];
@@ -290,29 +372,31 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 			gyroMatrix = getRotationMatrixFromOrientation(fusedOrientation);
 			System.arraycopy(fusedOrientation, 0, gyroOrientation, 0, 3);
 
-			if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
+			if (mSyncOrientationToFrames) {
+				// the renderer looks up the orientation at the exposure of every frame
+				mFusedRotation.fromAngles(fusedOrientation[2], -fusedOrientation[0], fusedOrientation[1]);
+				long sampleTime = mGyroTimestampNs != 0 ? mGyroTimestampNs : SystemClock.elapsedRealtimeNanos();
+				mOrientationHistory.add(sampleTime, mFusedRotation);
+			} else if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
 				((com.ar4android.cameraAccessJME.JmeARapplication) app).setRotation((float) (fusedOrientation[2]), (float) (-fusedOrientation[0]), (float) (fusedOrientation[1]));
 			}
 		}
 	}
 
 	private final CameraWrapper.PreviewCallback mCameraCallback = new CameraWrapper.PreviewCallback() {
-		public void onPreviewFrame(byte[] data) {
-			if (data != null && stopPreview == false) {
-				mPreviewByteBufferRGB565.clear();
+		public void onPreviewFrame(CameraFrame frame) {
+			if (frame != null && stopPreview == false) {
 				// Perform processing on the camera preview data.
-				yCbCrToRGB565(data, mPreviewWidth, mPreviewHeight,
-						mPreviewBufferRGB565);
-				mPreviewByteBufferRGB565.put(mPreviewBufferRGB565);
-				cameraJMEImageRGB565.setData(mPreviewByteBufferRGB565);
-				if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
-					((com.ar4android.cameraAccessJME.JmeARapplication) app)
-							.setTexture(cameraJMEImageRGB565);
-				}
+				mFramePipeline.onPreviewFrame(frame);
 			}
 		}
 	};
 
+	// Returns the frames passed on and dropped so far at every stage
+	public FrameDropStats getFrameDropStats() {
+		return mFrameDropStats;
+	}
+
 	private LocationListener locListener= new LocationListener() {
 
 		private static final String TAG = "LocationListener";
@@ -394,10 +478,23 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 	private final CameraWrapper.PreviewSizeCallback mCameraPreviewSizeCallback = new CameraWrapper.PreviewSizeCallback() {
 
 		@Override
-		public void onPreviewSizeChange(Size previewSize) {
-			Log.i(TAG, " ***** onPreviewSizeChange - previewSize.getWidth():[" + previewSize.getWidth() +"] previewSize.getHeight():[" + previewSize.getHeight() + "]");
+		public void onPreviewSizeChange(Size previewSize, int rotation, boolean mirrored) {
+			Log.i(TAG, " ***** onPreviewSizeChange - previewSize.getWidth():[" + previewSize.getWidth() +"] previewSize.getHeight():[" + previewSize.getHeight() + "] rotation:[" + rotation + "] mirrored:[" + mirrored + "]");
 			mPreviewWidth = previewSize.getWidth();
 			mPreviewHeight = previewSize.getHeight();
+			// the measurements of the previous size do not apply anymore
+			mResolutionController.setSizes(mPreview.getSupportedPreviewSizes(), previewSize);
+			// the session about to be created requests the frame rate range
+			// chosen so far, or the initial one once the ranges are known
+			Range<Integer> fpsRange = mFrameRateGovernor.getCurrentRange();
+			if (fpsRange == null) {
+				fpsRange = mFrameRateGovernor.setAvailableRanges(mPreview.getAvailableFpsRanges());
+			}
+			mPreview.setTargetFpsRange(fpsRange);
+			// no frame is being converted yet, so the kernel can safely be reconfigured
+			if (mFollowDisplayRotation) {
+				mYuvKernel.setOrientation(rotation, mirrored);
+			}
 
 			preparePreviewCallbackBuffer(mPreviewWidth, mPreviewHeight);
 		}
@@ -443,6 +540,73 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 //		appClass = "com.ar4android.cameraAccessJME.SuperimposeJME";
 //		appClass = "com.ar4android.cameraAccessJME.LocationAccessJME";
 		appClass = "com.ar4android.cameraAccessJME.SensorAccessJME";
+		// Choose the kernel converting the camera frames
+//		mYuvKernel = new FixedPointYuvConverter();
+		mYuvKernel = new LutYuvConverter();
+		// Choose the format of the video background texture:
+		// RGB565, RGB8, RGBA8 or Luminance8 (grayscale, half the upload bandwidth of RGB565)
+		mYuvKernel.setOutputFormat(Image.Format.RGB565);
+		// Choose the colour matrix and range the camera delivers, usually BT.601 full range
+		mYuvKernel.setColorMatrix(YuvColorMatrix.BT601_FULL);
+		// Decimate the frames by 2 or 4 while converting them if the background
+		// does not need the full camera resolution
+		mYuvKernel.setDownscale(1, AbstractYuvConverter.ScaleFilter.BOX);
+		// Rotate the frames to the display while converting them, so the
+		// activity does not have to be kept in the sensor's landscape orientation
+		mFollowDisplayRotation = true;
+		// Spread the conversion over all cores
+		mYuvConverter = new ParallelYuvConverter(mYuvKernel);
+		// Cap the direct memory of the converted frames, frames are dropped
+		// while all of it is in use
+		mFramePool = new FramePool(32 * 1024 * 1024);
+		// Convert the frames and run them through the processing stages, e.g.
+		// mFramePipeline.addStage("analysis", processor, Executors.newSingleThreadExecutor());
+		mFramePipeline = new FramePipeline(mFramePool, mFrameDropStats);
+		mFramePipeline.setConverter(mYuvConverter);
+		mFramePipeline.setLatencyStats(mFrameLatencyStats);
+		// Dump the exposure-to-screen latencies every 10 seconds, e.g. into a
+		// file instead of just logcat:
+//		mLatencyDumpFile = new File("/sdcard/latency.txt");
+		mLatencyDumpIntervalMs = 10000;
+		// Record the raw preview frames into a 256 MB ring file, e.g. to see
+		// what the camera delivered during a field issue:
+//		mRawFrameRecordingFile = new File("/sdcard/frames.ring");
+		mRawFrameRecordingBytes = 256L * 1024 * 1024;
+		// room for a 1280x720 frame and its header
+		mRawFrameSlotBytes = 2 * 1024 * 1024;
+		// Upload every frame into the background texture the previous render
+		// frame did not draw with, so the upload does not wait for the GPU
+		mDoubleBufferedUpload = true;
+//		mDoubleBufferedUpload = false;
+		// Draw the background and the 3D scene in a single viewport, which
+		// saves a viewport's clears and traversal per frame
+		mSinglePassCompositing = true;
+//		mSinglePassCompositing = false;
+		// Keep the conversion and rendering of a frame within the 33 ms of a
+		// 30 fps camera by lowering the preview resolution on slow or thermally
+		// throttled devices, checked once a second
+		mResolutionController = new PreviewResolutionController(mFramePipeline, 1000000000L / 30);
+		mAdaptPreviewResolution = true;
+//		mAdaptPreviewResolution = false;
+		mResolutionCheckIntervalMs = 1000;
+		// Let the camera deliver as many frames as the renderer shows, but no more
+		mFrameRateGovernor = new FrameRateGovernor(FrameRatePolicy.MAX_FPS);
+//		mFrameRateGovernor = new FrameRateGovernor(FrameRatePolicy.STEADY_FPS);
+//		mFrameRateGovernor = new FrameRateGovernor(FrameRatePolicy.POWER_SAVER);
+		mFrameRateCheckIntervalMs = 1000;
+		// Take the frames from the camera, or from a synthetic pattern to run
+		// the pipeline and the video background without one
+		mFrameSource = null;
+//		mFrameSource = new SyntheticFrameSource(640, 480, 30);
+		// Render the virtual content with the orientation the device had when
+		// the camera frame behind it was exposed
+		mSyncOrientationToFrames = true;
+		// Only convert the newest preview frame when the conversion falls
+		// behind, which keeps the latency of the background low
+		mBackpressurePolicy = BackpressurePolicy.LATEST_ONLY;
+//		mBackpressurePolicy = BackpressurePolicy.BOUNDED_QUEUE;
+//		mBackpressurePolicy = BackpressurePolicy.BLOCK_PRODUCER;
+		mBackpressureQueueDepth = 2;
 
 		// Try ConfigType.FASTEST; or ConfigType.LEGACY if you have problems
 //		eglConfigType = ConfigType.BEST;
@@ -452,7 +616,13 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 		// Enable verbose logging
 //		eglConfigVerboseLogging = false;
 		// Choose screen orientation
-//		screenOrientation = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;
+		// Both landscape orientations, the frames are turned upside down with the
+		// display if mFollowDisplayRotation is set; the sensor based examples
+		// expect a landscape display
+//		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_PORTRAIT;
+//		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;
+//		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_FULL_SENSOR;
+		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_SENSOR_LANDSCAPE;
 		// Invert the MouseEvents X (default = true)
 		mouseEventsInvertX = true;
 		// Invert the MouseEvents Y (default = true)
@@ -464,6 +634,11 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		// the application is initialized once its surface exists, after this
+		if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setSinglePassCompositing(mSinglePassCompositing);
+		}
 
 		//sensor fusion setup
 		gyroOrientation[0] = 0.0f;
@@ -490,23 +665,77 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 		// data is initialised then scedule the complementary filter task
 		fuseTimer.scheduleAtFixedRate(new calculateFusedOrientationTask(), 1000, TIME_CONSTANT);
 
-		cameraJMEImageRGB565 = new Image(Image.Format.RGB565, 0,
+		cameraJMEImageRGB565 = new Image(mYuvConverter.getOutputFormat(), 0,
 				0, null, ColorSpace.Linear);
 		mPreview = new Camera2Preview(this, mCameraCallback, mCameraPreviewSizeCallback);
+		mPreview.setBackpressurePolicy(mBackpressurePolicy, mBackpressureQueueDepth);
+		mPreview.setFrameDropStats(mFrameDropStats);
+		mPreview.setFrameLatencyStats(mFrameLatencyStats);
+		mResolutionController.setApplication((com.ar4android.cameraAccessJME.JmeARapplication) app);
+		mResolutionController.setListener(new PreviewResolutionController.Listener() {
+			@Override
+			public void onPreviewSizeChosen(Size size) {
+				mPreview.setPreviewStreamSize(size);
+			}
+		});
+		mFrameRateGovernor.setApplication((com.ar4android.cameraAccessJME.JmeARapplication) app);
+		mFrameRateGovernor.setListener(new FrameRateGovernor.Listener() {
+			@Override
+			public void onFpsRangeChosen(Range<Integer> range) {
+				mPreview.setTargetFpsRange(range);
+			}
+		});
+
+		openRawFrameRecorder();
 
 		Log.i(TAG, " ***** onCreate");
 	}
 
+	// turns the frames to the display once it rotated, the preview size
+	// callback is called again with the new rotation
+	private void onDisplayRotationChanged() {
+		if (mFrameSource == null) {
+			mPreview.updateDisplayRotation();
+		}
+	}
+
+	// starts recording the raw preview frames if a ring file is configured
+	private void openRawFrameRecorder() {
+		if (mRawFrameRecordingFile == null) {
+			return;
+		}
+		mRawFrameRecorder = new RawFrameRecorder(mRawFrameRecordingFile,
+				mRawFrameRecordingBytes, mRawFrameSlotBytes);
+		try {
+			mRawFrameRecorder.open();
+			mFramePipeline.setRecorder(mRawFrameRecorder);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not record the preview frames to " + mRawFrameRecordingFile, e);
+			mRawFrameRecorder = null;
+		}
+	}
+
 	@Override
     public void onResume() {
     	super.onResume();
+		if (mLatencyDumpIntervalMs > 0) {
+			mFrameLatencyStats.startPeriodicDump(mLatencyDumpIntervalMs, mLatencyDumpFile);
+		}
+		if (mAdaptPreviewResolution) {
+			mResolutionController.start(mResolutionCheckIntervalMs);
+		}
+		mFrameRateGovernor.start(mFrameRateCheckIntervalMs);
 
 		// make sure the AndroidGLSurfaceView view is on top of the view
 		// hierarchy
 		view.setZOrderOnTop(true);
 
 		// Choose screen orientation
-		setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
+		setRequestedOrientation(mScreenOrientation);
+		if (mFollowDisplayRotation) {
+			mDisplayManager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
+			mDisplayManager.registerDisplayListener(mDisplayListener, null);
+		}
 
 		locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
 		locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 500, 0, locListener);
@@ -538,8 +767,12 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 		}
 
 
-		ViewGroup.LayoutParams lp = new ViewGroup.LayoutParams(1, 1);
-		addContentView(mPreview, lp);
+		if (mFrameSource != null) {
+			mFrameSource.start(mCameraCallback, mCameraPreviewSizeCallback);
+		} else {
+			ViewGroup.LayoutParams lp = new ViewGroup.LayoutParams(1, 1);
+			addContentView(mPreview, lp);
+		}
 
 		Log.i(TAG, " ***** onResume");
 	}
@@ -547,9 +780,20 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 	@Override
 	protected void onPause() {
 		super.onPause();
-		// remove the SurfaceView
-		ViewGroup parent = (ViewGroup) mPreview.getParent();
-		parent.removeView(mPreview);
+		if (mDisplayManager != null) {
+			mDisplayManager.unregisterDisplayListener(mDisplayListener);
+			mDisplayManager = null;
+		}
+		mFrameLatencyStats.stopPeriodicDump();
+		mResolutionController.stop();
+		mFrameRateGovernor.stop();
+		if (mFrameSource != null) {
+			mFrameSource.stop();
+		} else {
+			// remove the SurfaceView
+			ViewGroup parent = (ViewGroup) mPreview.getParent();
+			parent.removeView(mPreview);
+		}
 
 		Log.i(TAG, " ***** onPause");
 	}
@@ -558,6 +802,36 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 	public void onStop() {
 		super.onStop();
 		sensorManager.unregisterListener(sensorListener);
+		if (mFrameExchange != null) {
+			Log.i(TAG, "Frames produced: " + mFrameExchange.getProducedCount()
+					+ " consumed: " + mFrameExchange.getConsumedCount()
+					+ " overwritten: " + mFrameExchange.getOverwrittenCount());
+		}
+		Log.i(TAG, "Frames dropped - " + mFrameDropStats);
+		Log.i(TAG, "Latency since exposure - " + mFrameLatencyStats);
+		Log.i(TAG, "Preview resolution - " + mResolutionController);
+		Log.i(TAG, "Camera frame rate - " + mFrameRateGovernor);
+		for (FramePipeline.Stage stage : mFramePipeline.getStages()) {
+			Log.i(TAG, "Stage " + stage);
+		}
+		Log.i(TAG, "Frame pool: " + mFramePool.getAllocatedBytes() + " bytes, exhausted "
+				+ mFramePool.getExhaustedCount() + " times");
+		if (mRawFrameRecorder != null) {
+			Log.i(TAG, "Raw frames recorded to " + mRawFrameRecorder);
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (mRawFrameRecorder != null) {
+			mFramePipeline.setRecorder(null);
+			mRawFrameRecorder.close();
+		}
+		// stop the conversion worker threads
+		if (mYuvConverter instanceof ParallelYuvConverter) {
+			((ParallelYuvConverter) mYuvConverter).shutdown();
+		}
 	}
 
 
@@ -566,90 +840,26 @@ public class Camera2AccessJMEActivity extends AndroidHarness {
 		Log.i(TAG, " ***** preparePreviewCallbackBuffer - mPreviewWidth:[" + mPreviewWidth +"] mPreviewHeight:[" + mPreviewHeight + "]");
 		// The actual preview width and height.
 		// They can differ from the requested width mDesiredCameraPreviewWidth
-		int bufferSizeRGB565 = mPreviewWidth * mPreviewHeight * 2 + 4096;
-		//Delete buffer before creating a new one.
-		mPreviewBufferRGB565 = null;
-		mPreviewBufferRGB565 = new byte[bufferSizeRGB565];
-		mPreviewByteBufferRGB565 = ByteBuffer.allocateDirect(mPreviewBufferRGB565.length);
-		cameraJMEImageRGB565 = new Image(Image.Format.RGB565, mPreviewWidth,
-				mPreviewHeight, mPreviewByteBufferRGB565, ColorSpace.Linear);
-	}
-
-	private static void yCbCrToRGB565(byte[] YCBCRs, int width, int height,
-									  byte[] rgbs) {
-
-		Log.i(TAG, "***** yCbCrToRGB565 - YCBCRs.length:[" + YCBCRs.length + "] rgbs.length:[" + rgbs.length + "] width:[" + width + "] height:[" + height + "]");
-		// the end of the luminance data
-		final int lumEnd = width * height;
-		// points to the next luminance value pair
-		int lumPtr = 0;
-		// points to the next chromiance value pair
-		int chrPtr = lumEnd;
-		// points to the next byte output pair of RGB565 value
-		int outPtr = 0;
-		// the end of the current luminance scanline
-		int lineEnd = width;
-
-		Log.i(TAG, "***** yCbCrToRGB565 - lumEnd:[" + lumEnd + "] lineEnd:[" + lineEnd + "]");
-
-		while (true) {
-
-			// skip back to the start of the chromiance values when necessary
-			if (lumPtr == lineEnd) {
-				if (lumPtr == lumEnd)
-					break; // we've reached the end
-				// division here is a bit expensive, but's only done once per
-				// scanline
-				chrPtr = lumEnd + ((lumPtr >> 1) / width) * width;
-				lineEnd += width;
-			}
-
-			// read the luminance and chromiance values
-			final int Y1 = YCBCRs[lumPtr++] & 0xff;
-			final int Y2 = YCBCRs[lumPtr++] & 0xff;
-			final int Cr = (YCBCRs[chrPtr++] & 0xff) - 128;
-			final int Cb = (YCBCRs[chrPtr++] & 0xff) - 128;
-			int R, G, B;
-
-			// generate first RGB components
-			B = Y1 + ((454 * Cb) >> 8);
-			if (B < 0)
-				B = 0;
-			else if (B > 255)
-				B = 255;
-			G = Y1 - ((88 * Cb + 183 * Cr) >> 8);
-			if (G < 0)
-				G = 0;
-			else if (G > 255)
-				G = 255;
-			R = Y1 + ((359 * Cr) >> 8);
-			if (R < 0)
-				R = 0;
-			else if (R > 255)
-				R = 255;
-			// NOTE: this assume little-endian encoding
-			rgbs[outPtr++] = (byte) (((G & 0x3c) << 3) | (B >> 3));
-			rgbs[outPtr++] = (byte) ((R & 0xf8) | (G >> 5));
-
-			// generate second RGB components
-			B = Y2 + ((454 * Cb) >> 8);
-			if (B < 0)
-				B = 0;
-			else if (B > 255)
-				B = 255;
-			G = Y2 - ((88 * Cb + 183 * Cr) >> 8);
-			if (G < 0)
-				G = 0;
-			else if (G > 255)
-				G = 255;
-			R = Y2 + ((359 * Cr) >> 8);
-			if (R < 0)
-				R = 0;
-			else if (R > 255)
-				R = 255;
-			// NOTE: this assume little-endian encoding
-			rgbs[outPtr++] = (byte) (((G & 0x3c) << 3) | (B >> 3));
-			rgbs[outPtr++] = (byte) ((R & 0xf8) | (G >> 5));
+		Image.Format videoFormat = mYuvConverter.getOutputFormat();
+		// the texture has the size of the possibly downscaled frames
+		int videoWidth = mYuvConverter.getOutputWidth(mPreviewWidth, mPreviewHeight);
+		int videoHeight = mYuvConverter.getOutputHeight(mPreviewWidth, mPreviewHeight);
+		// the frames come from the pool, which lets go of the frames of the
+		// previous size
+		mFramePool.trim();
+		mFrameExchange = new FrameExchange<PooledFrame>();
+		mFramePipeline.setOutput(mFrameExchange);
+		cameraJMEImageRGB565 = new Image(videoFormat, videoWidth,
+				videoHeight, null, ColorSpace.Linear);
+		if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setCameraFrames(mFrameExchange, cameraJMEImageRGB565);
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setFrameLatencyStats(mFrameLatencyStats);
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setDoubleBufferedUpload(mDoubleBufferedUpload);
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setOrientationHistory(mSyncOrientationToFrames ? mOrientationHistory : null);
 		}
 	}
 }
@@ -15,6 +15,7 @@ import android.hardware.camera2.CameraManager;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -24,11 +25,15 @@ public class Camera2Preview extends SurfaceView implements SurfaceHolder.Callbac
     private static final String TAG = "CameraPreview";
 	private SurfaceHolder mHolder;
 
-    private CameraWrapper mCamera2Util;
+    private volatile CameraWrapper mCamera2Util;
     private Activity mActivity;
     private Size mPreviewSize;
     CameraWrapper.PreviewCallback mCameraCallback;
     CameraWrapper.PreviewSizeCallback mPreviewSizeCallback;
+    private BackpressurePolicy mBackpressurePolicy = BackpressurePolicy.LATEST_ONLY;
+    private int mQueueDepth = 2;
+    private FrameDropStats mFrameDropStats;
+    private FrameLatencyStats mFrameLatencyStats;
 
     public Camera2Preview(Context context, CameraWrapper.PreviewCallback cameraCallback, CameraWrapper.PreviewSizeCallback previewSizeCallback) {
         super(context);
@@ -47,6 +52,73 @@ public class Camera2Preview extends SurfaceView implements SurfaceHolder.Callbac
         mCamera2Util = new Camera2WrapperImpl((CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE), mMessageHandler, mActivity.getWindowManager().getDefaultDisplay(), holder.getSurface());
         mCamera2Util.setPreviewCallback(mCameraCallback);
         mCamera2Util.setPreviewSizeCallback(mPreviewSizeCallback);
+        mCamera2Util.setBackpressurePolicy(mBackpressurePolicy, mQueueDepth);
+        if (mFrameDropStats != null) {
+            mCamera2Util.setFrameDropStats(mFrameDropStats);
+        }
+        mCamera2Util.setFrameLatencyStats(mFrameLatencyStats);
+    }
+
+    /**
+     * @see CameraWrapper#setBackpressurePolicy(BackpressurePolicy, int)
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy, int queueDepth) {
+        mBackpressurePolicy = policy;
+        mQueueDepth = queueDepth;
+    }
+
+    public void setFrameDropStats(FrameDropStats stats) {
+        mFrameDropStats = stats;
+    }
+
+    public void setFrameLatencyStats(FrameLatencyStats stats) {
+        mFrameLatencyStats = stats;
+    }
+
+    /**
+     * @see CameraWrapper#getSupportedPreviewSizes()
+     */
+    public Size[] getSupportedPreviewSizes() {
+        CameraWrapper camera = mCamera2Util;
+        return camera != null ? camera.getSupportedPreviewSizes() : new Size[0];
+    }
+
+    /**
+     * @see CameraWrapper#setPreviewStreamSize(Size)
+     */
+    public void setPreviewStreamSize(Size size) {
+        CameraWrapper camera = mCamera2Util;
+        if (camera != null) {
+            camera.setPreviewStreamSize(size);
+        }
+    }
+
+    /**
+     * @see CameraWrapper#getAvailableFpsRanges()
+     */
+    public Range<Integer>[] getAvailableFpsRanges() {
+        CameraWrapper camera = mCamera2Util;
+        return camera != null ? camera.getAvailableFpsRanges() : null;
+    }
+
+    /**
+     * @see CameraWrapper#setTargetFpsRange(Range)
+     */
+    public void setTargetFpsRange(Range<Integer> range) {
+        CameraWrapper camera = mCamera2Util;
+        if (camera != null) {
+            camera.setTargetFpsRange(range);
+        }
+    }
+
+    /**
+     * @see CameraWrapper#updateDisplayRotation()
+     */
+    public void updateDisplayRotation() {
+        CameraWrapper camera = mCamera2Util;
+        if (camera != null) {
+            camera.updateDisplayRotation();
+        }
     }
 
     public void surfaceDestroyed(SurfaceHolder holder) {
@@ -37,16 +37,17 @@ import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Display;
 import android.view.Surface;
 import android.widget.Toast;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -59,6 +60,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Camera2WrapperImpl implements CameraWrapper {
 
@@ -74,6 +76,18 @@ public class Camera2WrapperImpl implements CameraWrapper {
         ORIENTATIONS.append(Surface.ROTATION_270, 180);
     }
 
+    /**
+     * Conversion from screen rotation to degrees.
+     */
+    private static final SparseIntArray DISPLAY_DEGREES = new SparseIntArray();
+
+    static {
+        DISPLAY_DEGREES.append(Surface.ROTATION_0, 0);
+        DISPLAY_DEGREES.append(Surface.ROTATION_90, 90);
+        DISPLAY_DEGREES.append(Surface.ROTATION_180, 180);
+        DISPLAY_DEGREES.append(Surface.ROTATION_270, 270);
+    }
+
     /**
      * Tag for the {@link Log}.
      */
@@ -117,10 +131,28 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
     private CameraDevice mCameraDevice;
     /**
-     * The {@link Size} of camera preview.
+     * The {@link Size} of camera preview. Replaced on the processing thread together with
+     * {@link #mJmeImageReader}.
+     */
+    private volatile Size mPreviewSize;
+
+    /**
+     * The size the preview stream is reconfigured to once the closing capture session reported
+     * it was closed. Only accessed on the control thread.
+     */
+    private Size mPendingPreviewSize;
+
+    /**
+     * The sizes the preview stream can be reconfigured to, smallest first.
      */
+    private Size[] mSupportedPreviewSizes = new Size[0];
 
-    private Size mPreviewSize;
+    /**
+     * The auto exposure target frame rate ranges the camera supports, and the one the preview
+     * requests, if any.
+     */
+    private Range<Integer>[] mAvailableFpsRanges;
+    private volatile Range<Integer> mTargetFpsRange;
 
     /**
      * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
@@ -152,20 +184,42 @@ public class Camera2WrapperImpl implements CameraWrapper {
     };
 
     /**
-     * An additional thread for running tasks that shouldn't block the UI.
+     * Runs the capture state machine: opening the camera, the capture session and the capture
+     * callbacks.
      */
-    private HandlerThread mBackgroundThread;
+    private CameraThread mControlThread;
+    private Handler mControlHandler;
+    private int mControlThreadPriority = Process.THREAD_PRIORITY_DEFAULT;
 
     /**
-     * A {@link Handler} for running tasks in the background.
+     * Hands the preview frames to the preview callback. How many frames may wait for it is set
+     * by the backpressure policy.
      */
-    private Handler mBackgroundHandler;
+    private CameraThread mProcessingThread;
+    private Handler mProcessingHandler;
+    private int mProcessingThreadPriority = Process.THREAD_PRIORITY_DISPLAY;
+
+    /**
+     * Writes the still captures to disk, so saving a picture never holds up preview frames.
+     */
+    private CameraThread mIoThread;
+    private Handler mIoHandler;
+    private int mIoThreadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+
+    /**
+     * The number of still captures which may wait to be written.
+     */
+    private int mStillQueueDepth = 2;
 
     /**
      * An {@link ImageReader} that handles still image capture.
      */
     private ImageReader mImageReader;
-    private ImageReader mJmeImageReader;
+    /**
+     * An {@link ImageReader} that hands the preview frames to the preview callback. Replaced on
+     * the processing thread, which is the only one acquiring its images.
+     */
+    private volatile ImageReader mJmeImageReader;
 
     /**
      * This is the output file for our picture.
@@ -181,7 +235,8 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            mBackgroundHandler.post(new ImageSaver(reader.acquireNextImage(), mFile));
+            // the listener already runs on the IO thread
+            new ImageSaver(reader.acquireNextImage(), mFile).run();
         }
 
     };
@@ -191,7 +246,40 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            mBackgroundHandler.post(new ImageJmeProcessing(reader, mPreviewCallback));
+            // remember when the image was announced until it is acquired
+            if (mImageAvailableHead - mImageAvailableTail == mImageAvailableNs.length) {
+                mImageAvailableTail++;
+            }
+            mImageAvailableNs[mImageAvailableHead++ & (mImageAvailableNs.length - 1)]
+                    = SystemClock.elapsedRealtimeNanos();
+            switch (mBackpressurePolicy) {
+                case LATEST_ONLY:
+                    // a single pending run takes whatever is newest by the time it runs
+                    if (mPendingFrames.compareAndSet(0, 1)) {
+                        mProcessingHandler.post(mImageJmeProcessing);
+                    }
+                    break;
+                case BOUNDED_QUEUE:
+                    if (mPendingFrames.incrementAndGet() > mQueueDepth) {
+                        // the queue is full, make room by dropping the oldest frame waiting;
+                        // the runs already posted cover the new one
+                        mPendingFrames.decrementAndGet();
+                        Image oldest = acquireNextPreviewImage(reader);
+                        if (oldest != null) {
+                            oldest.close();
+                            mFrameDropStats.countDropped(FrameDropStats.Stage.CAMERA);
+                        }
+                    } else {
+                        mProcessingHandler.post(mImageJmeProcessing);
+                    }
+                    break;
+                default:
+                    // the reader holds at most mQueueDepth frames, so the posted runs are
+                    // bounded and the camera stalls once they pile up
+                    mPendingFrames.incrementAndGet();
+                    mProcessingHandler.post(mImageJmeProcessing);
+                    break;
+            }
         }
 
     };
@@ -224,6 +312,23 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
     private Display mDisplay;
 
+    /**
+     * The clockwise angle the sensor image has to be rotated by to be upright in the natural
+     * orientation of the device.
+     */
+    private int mSensorOrientation;
+
+    /**
+     * Whether the opened camera faces the user. Always {@code false} as long as
+     * {@link #setUpCameraOutputs(int, int)} skips the front facing cameras.
+     */
+    private boolean mFrontFacing;
+
+    /**
+     * The rotation the {@link #mPreviewSizeCallback} was called with last.
+     */
+    private volatile int mReportedRotation;
+
     private Surface mSurface;
 
     /**
@@ -276,6 +381,17 @@ public class Camera2WrapperImpl implements CameraWrapper {
             }
         }
 
+        @Override
+        public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request,
+                                     long timestamp, long frameNumber) {
+            // the timestamp equals the one of the image the capture produces
+            synchronized (mStartedCaptureTimestamps) {
+                final int slot = mStartedCaptureHead++ & (mStartedCaptureTimestamps.length - 1);
+                mStartedCaptureTimestamps[slot] = timestamp;
+                mStartedCaptureFrameNumbers[slot] = frameNumber;
+            }
+        }
+
         @Override
         public void onCaptureProgressed(CameraCaptureSession session, CaptureRequest request,
                                         CaptureResult partialResult) {
@@ -292,8 +408,58 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
     private CameraWrapper.PreviewCallback mPreviewCallback;
 
+    /**
+     * Hands the preview frames of {@link #mJmeImageReader} to {@link #mPreviewCallback}.
+     */
+    private final ImageJmeProcessing mImageJmeProcessing = new ImageJmeProcessing();
+
+    /**
+     * The frame descriptor which is reused for every preview frame.
+     */
+    private final CameraFrame mCameraFrame = new CameraFrame();
+
+    /**
+     * The sensor timestamps and frame numbers of the captures started last, a ring written by
+     * {@link #mCaptureCallback} on the control thread and read on the processing thread to find
+     * the frame number of a preview image. Guarded by {@code mStartedCaptureTimestamps}.
+     */
+    private final long[] mStartedCaptureTimestamps = new long[32];
+    private final long[] mStartedCaptureFrameNumbers = new long[32];
+    private int mStartedCaptureHead;
+
+    /**
+     * Whether the sensor timestamps are on the {@link android.os.SystemClock#elapsedRealtimeNanos()}
+     * time base.
+     */
+    private boolean mRealtimeTimestamps;
+
+    /**
+     * When the preview images waiting in {@link #mJmeImageReader} were announced, oldest first,
+     * and when the image acquired last was. Only accessed on the processing thread.
+     */
+    private final long[] mImageAvailableNs = new long[32];
+    private int mImageAvailableHead;
+    private int mImageAvailableTail;
+    private long mAcquiredImageAvailableNs;
+
+    private FrameLatencyStats mFrameLatencyStats;
+
     private CameraWrapper.PreviewSizeCallback mPreviewSizeCallback;
 
+    /**
+     * How preview frames arriving while the previous one is still processed are dealt with.
+     */
+    private BackpressurePolicy mBackpressurePolicy = BackpressurePolicy.LATEST_ONLY;
+    private int mQueueDepth = 2;
+
+    /**
+     * The preview frames announced by {@link #mJmeImageReader} which no run of
+     * {@link #mImageJmeProcessing} took yet.
+     */
+    private final AtomicInteger mPendingFrames = new AtomicInteger();
+
+    private FrameDropStats mFrameDropStats = new FrameDropStats();
+
     public Camera2WrapperImpl(CameraManager manager, Handler messageHandler, Display display, Surface surface) {
         mCameraManager = manager;
         mMessageHandler = messageHandler;
@@ -306,20 +472,18 @@ public class Camera2WrapperImpl implements CameraWrapper {
      */
     @Override
     public Size openCamera(int width, int height) {
-        startBackgroundThread();
+        startBackgroundThreads();
 
         Log.i(TAG, " ***** openCamera height:[" + height + "] width:[" + width + "]");
         mPreviewSize = setUpCameraOutputs(width, height);
 
-        if (mPreviewSizeCallback != null) {
-            mPreviewSizeCallback.onPreviewSizeChange(mPreviewSize);
-        }
+        reportPreviewSize(mPreviewSize);
 
         try {
             if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
                 throw new RuntimeException("Time out waiting to lock camera opening.");
             }
-            mCameraManager.openCamera(mCameraId, mStateCallback, mBackgroundHandler);
+            mCameraManager.openCamera(mCameraId, mStateCallback, mControlHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
@@ -346,14 +510,6 @@ public class Camera2WrapperImpl implements CameraWrapper {
                 mCameraDevice.close();
                 mCameraDevice = null;
             }
-            if (null != mImageReader) {
-                mImageReader.close();
-                mImageReader = null;
-            }
-            if (null != mJmeImageReader) {
-                mJmeImageReader.close();
-                mJmeImageReader = null;
-            }
         } catch (InterruptedException e) {
             throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
         } catch (CameraAccessException e) {
@@ -362,7 +518,18 @@ public class Camera2WrapperImpl implements CameraWrapper {
             mCameraOpenCloseLock.release();
         }
 
-        stopBackgroundThread();
+        // the processing thread converts straight from the planes of the preview images and
+        // the I/O thread saves from the still image, so the readers, which free the images'
+        // memory, are only closed once both threads have finished
+        stopBackgroundThreads();
+        if (null != mImageReader) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (null != mJmeImageReader) {
+            mJmeImageReader.close();
+            mJmeImageReader = null;
+        }
     }
 
     /**
@@ -372,7 +539,20 @@ public class Camera2WrapperImpl implements CameraWrapper {
     @Override
     public void takePicture(File picFile) {
         mFile = picFile;
-        lockFocus();
+        final Handler controlHandler = mControlHandler;
+        if (controlHandler == null) {
+            return;
+        }
+        // the capture session and its requests are only used on the control thread
+        controlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null != mCaptureSession && mState == STATE_PREVIEW
+                        && mPendingPreviewSize == null) {
+                    lockFocus();
+                }
+            }
+        });
     }
 
     @Override
@@ -385,6 +565,265 @@ public class Camera2WrapperImpl implements CameraWrapper {
         mPreviewSizeCallback = cb;
     }
 
+    @Override
+    public void setBackpressurePolicy(BackpressurePolicy policy, int queueDepth) {
+        mBackpressurePolicy = policy;
+        mQueueDepth = Math.max(1, queueDepth);
+    }
+
+    @Override
+    public void setFrameDropStats(FrameDropStats stats) {
+        mFrameDropStats = stats;
+    }
+
+    @Override
+    public void setFrameLatencyStats(FrameLatencyStats stats) {
+        mFrameLatencyStats = stats;
+    }
+
+    /**
+     * Sets the {@link Process} priorities of the background threads. Takes effect with the next
+     * {@link #openCamera(int, int)}.
+     *
+     * @param control    Of the thread running the capture state machine
+     * @param processing Of the thread handing the preview frames to the preview callback
+     * @param io         Of the thread writing still captures to disk
+     */
+    public void setThreadPriorities(int control, int processing, int io) {
+        mControlThreadPriority = control;
+        mProcessingThreadPriority = processing;
+        mIoThreadPriority = io;
+    }
+
+    /**
+     * @param depth The number of still captures which may wait to be written. Takes effect with
+     *              the next {@link #openCamera(int, int)}.
+     */
+    public void setStillQueueDepth(int depth) {
+        mStillQueueDepth = Math.max(1, depth);
+    }
+
+    /**
+     * @return The threads running the capture state machine, handing on the preview frames and
+     * writing still captures, with the time work waited in their queues. Empty before the
+     * camera was opened.
+     */
+    public CameraThread[] getBackgroundThreads() {
+        if (mControlThread == null) {
+            return new CameraThread[0];
+        }
+        return new CameraThread[]{mControlThread, mProcessingThread, mIoThread};
+    }
+
+    /**
+     * @return The number of images {@link #mJmeImageReader} needs for the backpressure policy:
+     * the frames waiting, the one being processed and, when a full queue drops its oldest frame,
+     * the one acquired to do so.
+     */
+    private int getJmeImageReaderMaxImages() {
+        switch (mBackpressurePolicy) {
+            case LATEST_ONLY:
+                // the newest frame is held while the next one is checked for
+                return 2;
+            case BOUNDED_QUEUE:
+                return mQueueDepth + 2;
+            default:
+                return mQueueDepth + 1;
+        }
+    }
+
+    @Override
+    public Size[] getSupportedPreviewSizes() {
+        return mSupportedPreviewSizes.clone();
+    }
+
+    @Override
+    public void setPreviewStreamSize(final Size size) {
+        final Handler controlHandler = mControlHandler;
+        if (controlHandler == null) {
+            return;
+        }
+        // the capture session and its requests are only used on the control thread
+        controlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reconfigurePreviewStream(size);
+            }
+        });
+    }
+
+    @Override
+    public Range<Integer>[] getAvailableFpsRanges() {
+        return mAvailableFpsRanges != null ? mAvailableFpsRanges.clone() : null;
+    }
+
+    @Override
+    public void setTargetFpsRange(final Range<Integer> range) {
+        mTargetFpsRange = range;
+        final Handler controlHandler = mControlHandler;
+        if (controlHandler == null || range == null) {
+            return;
+        }
+        controlHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // a session being configured picks the range up in onConfigured
+                if (null == mCaptureSession || mState != STATE_PREVIEW) {
+                    return;
+                }
+                try {
+                    mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+                    mPreviewRequest = mPreviewRequestBuilder.build();
+                    mCaptureSession.setRepeatingRequest(mPreviewRequest,
+                            mCaptureCallback, mControlHandler);
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                } catch (IllegalStateException e) {
+                    // the session was closed meanwhile, its successor picks the range up
+                    Log.w(TAG, "setTargetFpsRange - session closed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the capture session to reconfigure the preview stream to {@code size}; once it is
+     * closed, {@link #onPreviewSessionClosed()} continues. Runs on the control thread.
+     */
+    private void reconfigurePreviewStream(Size size) {
+        if (size.equals(mPreviewSize) || mState != STATE_PREVIEW || mPendingPreviewSize != null) {
+            return;
+        }
+        // the camera is neither being opened nor closed meanwhile
+        if (!mCameraOpenCloseLock.tryAcquire()) {
+            return;
+        }
+        try {
+            if (null == mCameraDevice || null == mCaptureSession) {
+                return;
+            }
+            Log.i(TAG, "***** reconfigurePreviewStream - from " + mPreviewSize + " to " + size);
+            mPendingPreviewSize = size;
+            mCaptureSession.stopRepeating();
+            mCaptureSession.close();
+            mCaptureSession = null;
+        } catch (CameraAccessException e) {
+            mPendingPreviewSize = null;
+            e.printStackTrace();
+        } finally {
+            mCameraOpenCloseLock.release();
+        }
+    }
+
+    /**
+     * Continues a reconfiguration of the preview stream once the old session was closed and
+     * delivers no more frames: the processing thread replaces {@link #mJmeImageReader} between
+     * two frames and reports the new size, then the control thread creates the new session.
+     * Runs on the control thread.
+     */
+    private void onPreviewSessionClosed() {
+        final Size size = mPendingPreviewSize;
+        final Handler processingHandler = mProcessingHandler;
+        mPendingPreviewSize = null;
+        if (size == null || processingHandler == null) {
+            return;
+        }
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!replaceJmeImageReader(size)) {
+                    return;
+                }
+                final Handler controlHandler = mControlHandler;
+                if (controlHandler != null) {
+                    controlHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mCameraOpenCloseLock.tryAcquire()) {
+                                try {
+                                    if (null != mCameraDevice && null == mCaptureSession) {
+                                        createCameraPreviewSession();
+                                    }
+                                } finally {
+                                    mCameraOpenCloseLock.release();
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces {@link #mJmeImageReader} by one of {@code size} and reports the new size. Runs on
+     * the processing thread, so no preview image is in use and the size callback may replace
+     * what the frames are delivered to.
+     *
+     * @return Whether the reader was replaced, {@code false} if the camera was closed meanwhile
+     */
+    private boolean replaceJmeImageReader(Size size) {
+        if (!mCameraOpenCloseLock.tryAcquire()) {
+            return false;
+        }
+        try {
+            if (null == mCameraDevice) {
+                return false;
+            }
+            if (null != mJmeImageReader) {
+                mJmeImageReader.close();
+            }
+            mPreviewSize = size;
+            createJmeImageReader(size);
+            reportPreviewSize(size);
+            return true;
+        } finally {
+            mCameraOpenCloseLock.release();
+        }
+    }
+
+    @Override
+    public void updateDisplayRotation() {
+        final Handler processingHandler = mProcessingHandler;
+        if (processingHandler == null) {
+            return;
+        }
+        // on the processing thread no frame is converted while the callback reconfigures
+        processingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Size size = mPreviewSize;
+                if (size != null && mJmeImageReader != null
+                        && getPreviewRotation() != mReportedRotation) {
+                    reportPreviewSize(size);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calls the {@link #mPreviewSizeCallback} with {@code size} and the rotation for the current
+     * display rotation.
+     */
+    private void reportPreviewSize(Size size) {
+        mReportedRotation = getPreviewRotation();
+        if (mPreviewSizeCallback != null) {
+            mPreviewSizeCallback.onPreviewSizeChange(size, mReportedRotation, mFrontFacing);
+        }
+    }
+
+    /**
+     * Creates {@link #mJmeImageReader} for preview frames of {@code size}.
+     */
+    private void createJmeImageReader(Size size) {
+        mPendingFrames.set(0);
+        mImageAvailableTail = mImageAvailableHead;
+        mJmeImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, getJmeImageReaderMaxImages());
+        mJmeImageReader.setOnImageAvailableListener(
+                mOnJmeImageAvailableListener, mProcessingHandler);
+    }
+
     /**
      * Sets up member variables related to camera.
      *
@@ -399,7 +838,8 @@ public class Camera2WrapperImpl implements CameraWrapper {
                 CameraCharacteristics characteristics
                         = mCameraManager.getCameraCharacteristics(cameraId);
 
-                // We don't use a front facing camera in this sample.
+                // We don't use a front facing camera in this sample, so the frames are
+                // never mirrored.
                 if (characteristics.get(CameraCharacteristics.LENS_FACING)
                         == CameraCharacteristics.LENS_FACING_FRONT) {
                     continue;
@@ -412,10 +852,12 @@ public class Camera2WrapperImpl implements CameraWrapper {
                 Size largest = Collections.max(
                         Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)),
                         new CompareSizesByArea());
+                // every image waiting to be written is held, so the camera cannot take more
+                // pictures than the I/O queue holds
                 mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                        ImageFormat.JPEG, /*maxImages*/2);
+                        ImageFormat.JPEG, mStillQueueDepth);
                 mImageReader.setOnImageAvailableListener(
-                        mOnImageAvailableListener, mBackgroundHandler);
+                        mOnImageAvailableListener, mIoHandler);
 
                 // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
                 // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
@@ -425,10 +867,20 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
                 Log.i(TAG, "***** setUpCameraOutputs - largest.getWidth():[" + largest.getWidth() + "] largest.getHeight():[" + largest.getHeight() + "] previewSize.getWidth():[" + previewSize.getWidth() + "] previewSize.getHeight():[" + previewSize.getHeight() + "]");
 
-                mJmeImageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
-                        ImageFormat.YUV_420_888, /*maxImages*/1);
-                mJmeImageReader.setOnImageAvailableListener(
-                        mOnJmeImageAvailableListener, mBackgroundHandler);
+                mSupportedPreviewSizes = getSmallerSizes(map.getOutputSizes(ImageFormat.YUV_420_888),
+                        previewSize);
+                createJmeImageReader(previewSize);
+
+                mAvailableFpsRanges = characteristics.get(
+                        CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+
+                Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                mSensorOrientation = sensorOrientation != null ? sensorOrientation : 90;
+                mFrontFacing = characteristics.get(CameraCharacteristics.LENS_FACING)
+                        == CameraCharacteristics.LENS_FACING_FRONT;
+                Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                mRealtimeTimestamps = timestampSource != null && timestampSource
+                        == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
 
                 mCameraId = cameraId;
                 break;
@@ -440,6 +892,21 @@ public class Camera2WrapperImpl implements CameraWrapper {
         return previewSize;
     }
 
+    /**
+     * Computes the clockwise rotation which turns the preview frames upright on the display in
+     * its current rotation. A front facing camera's frames are to be mirrored first, which is
+     * why its display rotation adds to the sensor orientation instead of being subtracted.
+     *
+     * @return The rotation in degrees, 0, 90, 180 or 270
+     */
+    private int getPreviewRotation() {
+        final int displayDegrees = DISPLAY_DEGREES.get(mDisplay.getRotation());
+        if (mFrontFacing) {
+            return (mSensorOrientation + displayDegrees) % 360;
+        }
+        return (mSensorOrientation - displayDegrees + 360) % 360;
+    }
+
     /**
      * Shows a {@link Toast} on the UI thread.
      *
@@ -488,26 +955,55 @@ public class Camera2WrapperImpl implements CameraWrapper {
     }
 
     /**
-     * Starts a background thread and its {@link Handler}.
+     * @param choices The sizes the camera supports for the preview frames
+     * @param largest The largest size wanted, whose aspect ratio the sizes are to match
+     * @return The {@code choices} matching the aspect ratio of {@code largest} and at most as
+     * large, smallest first, including {@code largest} itself
+     */
+    private static Size[] getSmallerSizes(Size[] choices, Size largest) {
+        List<Size> smaller = new ArrayList<Size>();
+        int w = largest.getWidth();
+        int h = largest.getHeight();
+        for (Size option : choices) {
+            if (option.getHeight() == option.getWidth() * h / w &&
+                    option.getWidth() <= w && option.getHeight() <= h) {
+                smaller.add(option);
+            }
+        }
+        if (!smaller.contains(largest)) {
+            smaller.add(largest);
+        }
+        Collections.sort(smaller, new CompareSizesByArea());
+        return smaller.toArray(new Size[smaller.size()]);
+    }
+
+    /**
+     * Starts the control, processing and I/O threads and their {@link Handler}s.
      */
-    private void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+    private void startBackgroundThreads() {
+        mControlThread = new CameraThread("CameraControl", mControlThreadPriority);
+        mProcessingThread = new CameraThread("CameraProcessing", mProcessingThreadPriority);
+        mIoThread = new CameraThread("CameraIO", mIoThreadPriority);
+        mControlThread.start();
+        mProcessingThread.start();
+        mIoThread.start();
+        mControlHandler = mControlThread.getHandler();
+        mProcessingHandler = mProcessingThread.getHandler();
+        mIoHandler = mIoThread.getHandler();
     }
 
     /**
-     * Stops the background thread and its {@link Handler}.
+     * Stops the background threads and logs how long work waited in their queues.
      */
-    private void stopBackgroundThread() {
-        mBackgroundThread.quitSafely();
-        try {
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    private void stopBackgroundThreads() {
+        // pictures still waiting are written before the I/O thread ends
+        mControlThread.stop();
+        mProcessingThread.stop();
+        mIoThread.stop();
+        Log.i(TAG, "Queue wait - " + mControlThread + "; " + mProcessingThread + "; " + mIoThread);
+        mControlHandler = null;
+        mProcessingHandler = null;
+        mIoHandler = null;
     }
 
     /**
@@ -543,11 +1039,18 @@ public class Camera2WrapperImpl implements CameraWrapper {
                                 // Flash is automatically enabled when necessary.
                                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
                                         CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                                // The auto exposure keeps to the frame rates the renderer
+                                // shows; the frame duration follows from the range.
+                                Range<Integer> fpsRange = mTargetFpsRange;
+                                if (fpsRange != null) {
+                                    mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                                            fpsRange);
+                                }
 
                                 // Finally, we start displaying the camera preview.
                                 mPreviewRequest = mPreviewRequestBuilder.build();
                                 mCaptureSession.setRepeatingRequest(mPreviewRequest,
-                                        mCaptureCallback, mBackgroundHandler);
+                                        mCaptureCallback, mControlHandler);
                             } catch (CameraAccessException e) {
                                 e.printStackTrace();
                             }
@@ -557,7 +1060,12 @@ public class Camera2WrapperImpl implements CameraWrapper {
                         public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
                             showToast("Failed");
                         }
-                    }, null
+
+                        @Override
+                        public void onClosed(CameraCaptureSession cameraCaptureSession) {
+                            onPreviewSessionClosed();
+                        }
+                    }, mControlHandler
             );
         } catch (CameraAccessException e) {
             e.printStackTrace();
@@ -575,7 +1083,7 @@ public class Camera2WrapperImpl implements CameraWrapper {
             // Tell #mCaptureCallback to wait for the lock.
             mState = STATE_WAITING_LOCK;
             mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
+                    mControlHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
@@ -593,7 +1101,7 @@ public class Camera2WrapperImpl implements CameraWrapper {
             // Tell #mCaptureCallback to wait for the precapture sequence to be set.
             mState = STATE_WAITING_PRECAPTURE;
             mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
+                    mControlHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
@@ -652,11 +1160,11 @@ public class Camera2WrapperImpl implements CameraWrapper {
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
                     CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
             mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
+                    mControlHandler);
             // After this, the camera will go back to the normal state of preview.
             mState = STATE_PREVIEW;
             mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
-                    mBackgroundHandler);
+                    mControlHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
@@ -710,82 +1218,101 @@ public class Camera2WrapperImpl implements CameraWrapper {
 
     }
 
+    /**
+     * Passes the planes of the next YUV_420_888 preview {@link Image} on to the preview callback
+     * without copying them, which is the newest one for
+     * {@link BackpressurePolicy#LATEST_ONLY} and the oldest one waiting otherwise. The image is
+     * closed again as soon as the callback returns.
+     */
     private class ImageJmeProcessing implements Runnable {
 
-        /**
-         * The JPEG image
-         */
-        Image mImage;
-        /**
-         * The file we save the image into.
-         */
-        ImageReader mReader;
-
-        CameraWrapper.PreviewCallback mPreviewCallback;
-
-        public ImageJmeProcessing(ImageReader reader, CameraWrapper.PreviewCallback previewCallback) {
-            mReader = reader;
-            mPreviewCallback = previewCallback;
-        }
-
         @Override
         public void run() {
-            Log.i(TAG, "***** ImageJmeProcessing - run()");
-            if (mPreviewCallback != null) {
-                try {
-                    mImage = mReader.acquireNextImage();
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - mImage.getWidth():" + mImage.getWidth() + "]  mImage.getHeight():" + mImage.getHeight() + "] mImage.getPlanes().length:[" + mImage.getPlanes().length + "] mImage.getFormat():[" + mImage.getFormat() + "]");
-                    ByteBuffer yBuf = mImage.getPlanes()[0].getBuffer();
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - mImage.getPlanes()[0].getRowStride():" + mImage.getPlanes()[0].getRowStride() + "]  mImage.getPlanes()[0].getPixelStride():" + mImage.getPlanes()[0].getPixelStride() + "]");
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - vBuf.remaining() -1:" + yBuf.remaining() + "]");
-                    byte[] yBytes = new byte[yBuf.remaining()];
-                    yBuf.rewind();
-                    yBuf.get(yBytes);
-                    Log.i(TAG, "***** ImageJmeProcessing - run() -  yBuf.remaining() -2:" + yBuf.remaining() + "] yBytes.length -2:" + yBytes.length + "]");
-
-                    ByteBuffer uBuf = mImage.getPlanes()[1].getBuffer();
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - mImage.getPlanes()[1].getRowStride():" + mImage.getPlanes()[1].getRowStride() + "]  mImage.getPlanes()[1].getPixelStride():" + mImage.getPlanes()[1].getPixelStride() + "]");
-                    byte[] uBytes = new byte[uBuf.remaining()];
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - uBuf.remaining() -1:" + uBuf.remaining() + "]");
-                    uBuf.rewind();
-                    uBuf.get(uBytes);
-                    Log.i(TAG, "***** ImageJmeProcessing - run() -  uBuf.remaining() -2:" + uBuf.remaining() + "] uBytes.length -2:" + uBytes.length + "]");
-
-                    ByteBuffer vBuf = mImage.getPlanes()[2].getBuffer();
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - mImage.getPlanes()[2].getRowStride():" + mImage.getPlanes()[2].getRowStride() + "]  mImage.getPlanes()[2].getPixelStride():" + mImage.getPlanes()[2].getPixelStride() + "]");
-                    byte[] vBytes = new byte[vBuf.remaining()];
-                    Log.i(TAG, "***** ImageJmeProcessing - run() - vBuf.remaining() -1:" + vBuf.remaining() + "]");
-                    vBuf.rewind();
-                    vBuf.get(vBytes);
-                    Log.i(TAG, "***** ImageJmeProcessing - run() -  vBuf.remaining() -2:" + vBuf.remaining() + "] vBytes.length -2:" + vBytes.length + "]");
-
-                    mImage.close();
-                    /**
-                     * Convert YUV_420_888 image from  planar
-                     * to semi-planar
-                     */
-                    ByteArrayOutputStream yuv420semiPlanar = new ByteArrayOutputStream();
-                    try {
-                        yuv420semiPlanar.write(yBytes);
-                        Log.i(TAG, "***** ImageJmeProcessing - run() - vBytes.length:" + vBytes.length + "]");
-                        for (int i=0;i<vBytes.length;i++) {
-                            yuv420semiPlanar.write(vBytes[i]);
-                            yuv420semiPlanar.write(uBytes[i]);
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                    Log.i(TAG, "***** ImageJmeProcessing - run() -  calling mPreviewCallback");
-                    mPreviewCallback.onPreviewFrame(yuv420semiPlanar.toByteArray());
+            ImageReader reader = mJmeImageReader;
+            CameraWrapper.PreviewCallback previewCallback = mPreviewCallback;
+            if (reader == null || previewCallback == null) {
+                mPendingFrames.set(0);
+                return;
+            }
+            Image image;
+            if (mBackpressurePolicy == BackpressurePolicy.LATEST_ONLY) {
+                // frames arriving from now on need another run
+                mPendingFrames.set(0);
+                image = acquireLatestImage(reader);
+            } else {
+                mPendingFrames.decrementAndGet();
+                image = acquireNextPreviewImage(reader);
+            }
+            if (image == null) {
+                return;
+            }
+            mFrameDropStats.countPassed(FrameDropStats.Stage.CAMERA);
+            try {
+                Image.Plane[] planes = image.getPlanes();
+                mCameraFrame.setPlanes(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(),
+                        planes[1].getRowStride(), planes[1].getPixelStride(),
+                        image.getWidth(), image.getHeight());
+                mCameraFrame.setTimestamp(image.getTimestamp(), mRealtimeTimestamps,
+                        getCaptureFrameNumber(image.getTimestamp()));
+                FrameLatencyStats latencyStats = mFrameLatencyStats;
+                if (latencyStats != null && mRealtimeTimestamps) {
+                    latencyStats.recordAt(FrameLatencyStats.Point.IMAGE_AVAILABLE,
+                            image.getTimestamp(), mAcquiredImageAvailableNs);
+                    latencyStats.record(FrameLatencyStats.Point.IMAGE_ACQUIRED,
+                            image.getTimestamp(), true);
+                }
+                previewCallback.onPreviewFrame(mCameraFrame);
+            } finally {
+                image.close();
+            }
+        }
+    }
 
-                } finally {
-                    if (mImage != null) {
-                        mImage.close();
-                    }
+    /**
+     * @return The frame number the camera gave the capture of the image with the timestamp, which
+     * also counts the frames the camera or the {@link ImageReader} dropped, or -1 if the start of
+     * the capture was not reported yet
+     */
+    private long getCaptureFrameNumber(long timestampNs) {
+        synchronized (mStartedCaptureTimestamps) {
+            final int mask = mStartedCaptureTimestamps.length - 1;
+            final int oldest = Math.max(0, mStartedCaptureHead - mStartedCaptureTimestamps.length);
+            // the image is most likely one of the latest captures
+            for (int i = mStartedCaptureHead - 1; i >= oldest; i--) {
+                if (mStartedCaptureTimestamps[i & mask] == timestampNs) {
+                    return mStartedCaptureFrameNumbers[i & mask];
                 }
             }
         }
+        return -1;
+    }
+
+    /**
+     * Like {@link ImageReader#acquireLatestImage()}, but counts the images skipped.
+     */
+    private Image acquireLatestImage(ImageReader reader) {
+        Image image = acquireNextPreviewImage(reader);
+        if (image == null) {
+            return null;
+        }
+        Image next;
+        while ((next = acquireNextPreviewImage(reader)) != null) {
+            image.close();
+            mFrameDropStats.countDropped(FrameDropStats.Stage.CAMERA);
+            image = next;
+        }
+        return image;
+    }
+
+    private Image acquireNextPreviewImage(ImageReader reader) {
+        Image image = reader.acquireNextImage();
+        if (image != null) {
+            mAcquiredImageAvailableNs = mImageAvailableTail != mImageAvailableHead
+                    ? mImageAvailableNs[mImageAvailableTail++ & (mImageAvailableNs.length - 1)]
+                    : SystemClock.elapsedRealtimeNanos();
+        }
+        return image;
     }
 
     /**
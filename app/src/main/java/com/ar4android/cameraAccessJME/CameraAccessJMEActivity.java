@@ -11,15 +11,24 @@ package com.ar4android.cameraAccessJME;
 
 import com.jme3.app.AndroidHarness;
 import android.content.pm.ActivityInfo;
+import android.hardware.display.DisplayManager;
 import android.hardware.Camera;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import android.graphics.ImageFormat;
 import android.graphics.PixelFormat;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Surface;
 import android.view.ViewGroup;
 
 //import com.jme3.system.android.AndroidConfigChooser.ConfigType;
@@ -31,12 +40,77 @@ import com.jme3.texture.image.ColorSpace;
 public class CameraAccessJMEActivity extends AndroidHarness {
 
 	private static final String TAG = "CameraAccessJMEActivity";
+	// the id of the camera to open
+	private static final int CAMERA_ID = 0;
 	private Camera mCamera;
 	private CameraPreview mPreview;
 	private int mDesiredCameraPreviewWidth = 640;
 
-	private byte[] mPreviewBufferRGB565 = null;
-	java.nio.ByteBuffer mPreviewByteBufferRGB565;
+	// hands the converted frames to the render thread
+	FrameExchange<PooledFrame> mFrameExchange;
+	// recycles the buffers of the converted frames, shared by all consumers
+	protected FramePool mFramePool;
+	// converts the preview frames and passes them through the processing
+	// stages to mFrameExchange
+	protected FramePipeline mFramePipeline;
+	// counts the frames dropped at every stage; Camera1 does not report the
+	// frames it skipped for lack of a free buffer, so none are counted for it
+	private final FrameDropStats mFrameDropStats = new FrameDropStats();
+	// records how long after their exposure the frames reach every stage
+	private final FrameLatencyStats mFrameLatencyStats = new FrameLatencyStats();
+	// how often the latencies are dumped to logcat, 0 to only log them on pause
+	protected long mLatencyDumpIntervalMs;
+	// the file the dumped latencies are appended to, if any
+	protected File mLatencyDumpFile;
+	// the ring file the raw preview frames are recorded into, if any, its
+	// size and the space of a frame in it
+	protected File mRawFrameRecordingFile;
+	protected long mRawFrameRecordingBytes;
+	protected int mRawFrameSlotBytes;
+	private RawFrameRecorder mRawFrameRecorder;
+	// whether the frames are uploaded into two textures taking turns
+	protected boolean mDoubleBufferedUpload;
+	// whether the background and the 3D scene share the main viewport
+	protected boolean mSinglePassCompositing;
+	// converts the NV21 preview frames straight into frames from mFramePool
+	protected YuvConverter mYuvConverter;
+	// the kernel inside mYuvConverter, configured with the orientation of the frames
+	protected AbstractYuvConverter mYuvKernel;
+	// whether the frames are rotated (and mirrored for a front camera) to the display
+	protected boolean mFollowDisplayRotation;
+	// the orientation requested for the activity in onResume
+	protected int mScreenOrientation;
+	// turns the frames along when the display rotates; a turn between the two
+	// landscape orientations changes no configuration and does not recreate
+	// the activity
+	private DisplayManager mDisplayManager;
+	private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+		@Override
+		public void onDisplayAdded(int displayId) {
+		}
+
+		@Override
+		public void onDisplayRemoved(int displayId) {
+		}
+
+		@Override
+		public void onDisplayChanged(int displayId) {
+			onDisplayRotationChanged();
+		}
+	};
+	// describes the planes of the current NV21 preview frame
+	private final CameraFrame mCameraFrame = new CameraFrame();
+	// the number of preview buffers the camera cycles through, 0 lets the camera
+	// allocate a new array for every frame
+	protected int mPreviewCallbackBufferCount;
+	// the preview buffers handed to the camera and their wrappers
+	private byte[][] mPreviewCallbackBuffers;
+	private ByteBuffer[] mPreviewCallbackByteBuffers;
+	// the number of the current preview frame, counting the delivered ones
+	private long mFrameNumber = -1;
+	// the preview frame array wrapped by mPreviewFrameBuffer
+	private byte[] mPreviewFrameData;
+	private ByteBuffer mPreviewFrameBuffer;
 	// the actual size of the preview images
 	int mPreviewWidth;
 	int mPreviewHeight;
@@ -44,37 +118,96 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 	// directly
 	private boolean pixelFormatConversionNeeded = true;
 
-	private boolean stopPreview = false;
+	// written on the UI thread, read by the preview callbacks on the camera thread
+	private volatile boolean stopPreview = false;
+	// the thread the camera is opened and its preview callbacks are run on
+	private HandlerThread mCameraThread;
+	private Handler mCameraHandler;
+	// the android.os.Process priority of the camera thread
+	protected int mCameraThreadPriority;
 	Image cameraJMEImageRGB565;
 
 	// Implement the interface for getting copies of preview frames
 	private final Camera.PreviewCallback mCameraCallback = new Camera.PreviewCallback() {
 		public void onPreviewFrame(byte[] data, Camera c) {	
 			if (c != null && stopPreview == false) {
-				mPreviewByteBufferRGB565.clear();
+				// Camera1 does not report the exposure time, the arrival time
+				// is the closest estimate
+				long now = SystemClock.elapsedRealtimeNanos();
+				mFrameNumber++;
+				mFrameDropStats.countPassed(FrameDropStats.Stage.CAMERA);
 				// Perform processing on the camera preview data.
 				if(pixelFormatConversionNeeded) {
-					yCbCrToRGB565(data, mPreviewWidth, mPreviewHeight,
-						mPreviewBufferRGB565);				
-					mPreviewByteBufferRGB565.put(mPreviewBufferRGB565);				
-				} else {					
-					mPreviewByteBufferRGB565.put(data);
-				}
-				cameraJMEImageRGB565.setData(mPreviewByteBufferRGB565);
-				if ((com.ar4android.cameraAccessJME.CameraAccessJME) app != null) {
-					((com.ar4android.cameraAccessJME.CameraAccessJME) app)
-							.setTexture(cameraJMEImageRGB565);
+					mCameraFrame.setNv21(wrapPreviewFrame(data), mPreviewWidth, mPreviewHeight);
+					mCameraFrame.setTimestamp(now, true, mFrameNumber);
+					mFramePipeline.onPreviewFrame(mCameraFrame);
+				} else {
+					PooledFrame frame = mFramePool.acquire(mPreviewWidth, mPreviewHeight,
+							mYuvConverter.getOutputFormat());
+					if (frame != null) {
+						mFrameDropStats.countPassed(FrameDropStats.Stage.FRAME_POOL);
+						ByteBuffer out = frame.getBuffer();
+						out.clear();
+						out.put(data);
+						out.clear();
+						frame.setTimestamp(now, true, mFrameNumber);
+						mFramePipeline.process(frame);
+					} else {
+						mFrameDropStats.countDropped(FrameDropStats.Stage.FRAME_POOL);
+					}
 				}
 			}
+			// the frame is converted, hand its buffer back to the camera
+			if (c != null && mPreviewCallbackBuffers != null) {
+				c.addCallbackBuffer(data);
+			}
 		}
 	};
 
+	// Returns a buffer wrapping the preview frame array without allocating
+	// one per frame.
+	private ByteBuffer wrapPreviewFrame(byte[] data) {
+		if (mPreviewCallbackBuffers != null) {
+			for (int i = 0; i < mPreviewCallbackBuffers.length; i++) {
+				if (mPreviewCallbackBuffers[i] == data) {
+					return mPreviewCallbackByteBuffers[i];
+				}
+			}
+		}
+		// only wrap the array again if the camera handed us a different one
+		if (data != mPreviewFrameData) {
+			mPreviewFrameData = data;
+			mPreviewFrameBuffer = ByteBuffer.wrap(data);
+		}
+		return mPreviewFrameBuffer;
+	}
+
+	// Returns the frames passed on and dropped so far at every stage
+	public FrameDropStats getFrameDropStats() {
+		return mFrameDropStats;
+	}
+
+	// Computes the clockwise rotation which turns the preview frames upright
+	// on the display. Front camera frames are mirrored before they are rotated.
+	private int getPreviewRotation(Camera.CameraInfo info) {
+		int degrees = 0;
+		switch (getWindowManager().getDefaultDisplay().getRotation()) {
+			case Surface.ROTATION_90: degrees = 90; break;
+			case Surface.ROTATION_180: degrees = 180; break;
+			case Surface.ROTATION_270: degrees = 270; break;
+		}
+		if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+			return (info.orientation + degrees) % 360;
+		}
+		return (info.orientation - degrees + 360) % 360;
+	}
+
 	// Retrieve an instance of the Camera object.
 	public static Camera getCameraInstance() {
 		Camera c = null;
 		try {
 			// get a Camera instance
-			c = Camera.open(0);
+			c = Camera.open(CAMERA_ID);
 		} catch (Exception e) {
 			// Camera is does not exist or is already in use
 			Log.e(TAG, "Camera not available or in use.");
@@ -85,7 +218,7 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 		return c;
 	}
 
-	// configure camera parameters like preview size
+	// configure camera parameters like preview size, on the camera thread
 	private void initializeCameraParameters() {
 		Camera.Parameters parameters = mCamera.getParameters();
 		// Get a list of supported preview sizes.
@@ -105,10 +238,22 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 		if (foundDesiredWidth) {
 			parameters.setPreviewSize(currentWidth, currentHeight);
 		}
-		// we also want to use RGB565 directly
+		// the frames are converted into the display orientation
+		if (mFollowDisplayRotation) {
+			Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+			Camera.getCameraInfo(CAMERA_ID, cameraInfo);
+			mYuvKernel.setOrientation(getPreviewRotation(cameraInfo),
+					cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+		}
+		// we also want to use RGB565 directly if that is what the video background uses
+		// at the full preview resolution and in sensor orientation
+		boolean unchangedFrames = mYuvKernel.getDownscale() == 1
+				&& mYuvKernel.getRotation() == 0 && !mYuvKernel.isMirrored();
 		List<Integer> pixelFormats = parameters.getSupportedPreviewFormats();
 		for (Integer format : pixelFormats) {
-			if (format == ImageFormat.RGB_565) {
+			if (format == ImageFormat.RGB_565
+					&& mYuvConverter.getOutputFormat() == Image.Format.RGB565
+					&& unchangedFrames) {
 				Log.d(TAG, "Camera supports RGB_565");
 				pixelFormatConversionNeeded = false;
 				parameters.setPreviewFormat(format);
@@ -125,6 +270,54 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 	public CameraAccessJMEActivity() {
 		// Set the application class to run
 		appClass = "com.ar4android.cameraAccessJME.CameraAccessJME";
+		// Choose the kernel converting the camera frames
+//		mYuvKernel = new FixedPointYuvConverter();
+		mYuvKernel = new LutYuvConverter();
+		// Choose the format of the video background texture:
+		// RGB565, RGB8, RGBA8 or Luminance8 (grayscale, half the upload bandwidth of RGB565)
+		mYuvKernel.setOutputFormat(Image.Format.RGB565);
+		// Choose the colour matrix and range the camera delivers, usually BT.601 full range
+		mYuvKernel.setColorMatrix(YuvColorMatrix.BT601_FULL);
+		// Decimate the frames by 2 or 4 while converting them if the background
+		// does not need the full camera resolution
+		mYuvKernel.setDownscale(1, AbstractYuvConverter.ScaleFilter.BOX);
+		// Rotate the frames to the display while converting them, so the
+		// activity does not have to be kept in the sensor's landscape orientation
+		mFollowDisplayRotation = true;
+		// Spread the conversion over all cores
+		mYuvConverter = new ParallelYuvConverter(mYuvKernel);
+		// Receive and convert the preview frames on a thread of this priority
+		// instead of the UI thread
+		mCameraThreadPriority = Process.THREAD_PRIORITY_DISPLAY;
+		// Let the camera cycle through a few preview buffers instead of
+		// allocating a new one for every frame (0 to disable)
+		mPreviewCallbackBufferCount = 3;
+		// Cap the direct memory of the converted frames, frames are dropped
+		// while all of it is in use
+		mFramePool = new FramePool(32 * 1024 * 1024);
+		// Convert the frames and run them through the processing stages, e.g.
+		// mFramePipeline.addStage("analysis", processor, Executors.newSingleThreadExecutor());
+		mFramePipeline = new FramePipeline(mFramePool, mFrameDropStats);
+		mFramePipeline.setConverter(mYuvConverter);
+		mFramePipeline.setLatencyStats(mFrameLatencyStats);
+		// Dump the exposure-to-screen latencies every 10 seconds, e.g. into a
+		// file instead of just logcat:
+//		mLatencyDumpFile = new File("/sdcard/latency.txt");
+		mLatencyDumpIntervalMs = 10000;
+		// Record the raw preview frames into a 256 MB ring file, e.g. to see
+		// what the camera delivered during a field issue:
+//		mRawFrameRecordingFile = new File("/sdcard/frames.ring");
+		mRawFrameRecordingBytes = 256L * 1024 * 1024;
+		// room for a 1280x720 frame and its header
+		mRawFrameSlotBytes = 2 * 1024 * 1024;
+		// Upload every frame into the background texture the previous render
+		// frame did not draw with, so the upload does not wait for the GPU
+		mDoubleBufferedUpload = true;
+//		mDoubleBufferedUpload = false;
+		// Draw the background and the 3D scene in a single viewport, which
+		// saves a viewport's clears and traversal per frame
+		mSinglePassCompositing = true;
+//		mSinglePassCompositing = false;
 		// Try ConfigType.FASTEST; or ConfigType.LEGACY if you have problems
 //		eglConfigType = ConfigType.BEST;
 		// Exit Dialog title & message
@@ -133,7 +326,13 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 		// Enable verbose logging
 //		eglConfigVerboseLogging = false;
 		// Choose screen orientation
-//		screenOrientation = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;
+		// Both landscape orientations, the frames are turned upside down with the
+		// display if mFollowDisplayRotation is set; the sensor based examples
+		// expect a landscape display
+//		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_PORTRAIT;
+//		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;
+//		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_FULL_SENSOR;
+		mScreenOrientation = ActivityInfo.SCREEN_ORIENTATION_SENSOR_LANDSCAPE;
 		// Invert the MouseEvents X (default = true)
 		mouseEventsInvertX = true;
 		// Invert the MouseEvents Y (default = true)
@@ -144,7 +343,58 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 	// needed for camera preview
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
-		super.onCreate(savedInstanceState);			
+		super.onCreate(savedInstanceState);
+		// the application is initialized once its surface exists, after this
+		if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setSinglePassCompositing(mSinglePassCompositing);
+		}
+		openRawFrameRecorder();
+	}
+
+	// turns the frames to the display once it rotated; runs on the camera
+	// thread between two preview callbacks, so no frame is being converted
+	private void onDisplayRotationChanged() {
+		mCameraHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				updatePreviewRotation();
+			}
+		});
+	}
+
+	// reconfigures the kernel and the frame output for the current display
+	// rotation, unless the camera delivers the frames unconverted
+	private void updatePreviewRotation() {
+		if (mCamera == null || !pixelFormatConversionNeeded) {
+			return;
+		}
+		Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+		Camera.getCameraInfo(CAMERA_ID, cameraInfo);
+		int rotation = getPreviewRotation(cameraInfo);
+		if (rotation == mYuvKernel.getRotation()) {
+			return;
+		}
+		mYuvKernel.setOrientation(rotation,
+				cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+		// a quarter turn swaps the width and height of the converted frames
+		prepareFrameOutput();
+	}
+
+	// starts recording the raw preview frames if a ring file is configured
+	private void openRawFrameRecorder() {
+		if (mRawFrameRecordingFile == null) {
+			return;
+		}
+		mRawFrameRecorder = new RawFrameRecorder(mRawFrameRecordingFile,
+				mRawFrameRecordingBytes, mRawFrameSlotBytes);
+		try {
+			mRawFrameRecorder.open();
+			mFramePipeline.setRecorder(mRawFrameRecorder);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not record the preview frames to " + mRawFrameRecordingFile, e);
+			mRawFrameRecorder = null;
+		}
 	}
 	
 	
@@ -153,21 +403,39 @@ public class CameraAccessJMEActivity extends AndroidHarness {
     public void onResume() {
     	super.onResume();
 		// Choose screen orientation
-		setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
+		setRequestedOrientation(mScreenOrientation);
+		if (mFollowDisplayRotation) {
+			mDisplayManager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
+			mDisplayManager.registerDisplayListener(mDisplayListener, null);
+		}
     	stopPreview = false;
-		// Create an instance of Camera
-		mCamera = getCameraInstance();
-		// initialize camera parameters
-		initializeCameraParameters();		
-		// register our callback function to get access to the camera preview
-		// frames
-		preparePreviewCallbackBuffer();		
+		if (mLatencyDumpIntervalMs > 0) {
+			mFrameLatencyStats.startPeriodicDump(mLatencyDumpIntervalMs, mLatencyDumpFile);
+		}
+		// Create an instance of Camera on the camera thread, which makes the
+		// camera deliver its preview callbacks there. The camera is only
+		// used on that thread from now on.
+		startCameraThread();
+		runOnCameraThread(new Runnable() {
+			@Override
+			public void run() {
+				mCamera = getCameraInstance();
+				if (mCamera != null) {
+					// initialize camera parameters
+					initializeCameraParameters();
+					// register our callback function to get access to the
+					// camera preview frames
+					preparePreviewCallbackBuffer();
+				}
+			}
+		});
 		if (mCamera == null) {
 			Log.e(TAG, "Camera not available");
 		} else {
 			// Create our Preview view and set it as the content of our
 			// activity.
-			mPreview = new CameraPreview(this, mCamera, mCameraCallback);
+			mPreview = new CameraPreview(this, mCamera, mCameraCallback,
+					mPreviewCallbackBuffers != null, mCameraHandler);
 			// We do not want to display the Camera Preview view at startup - so
 			// we resize it to 1x1 pixel.
 			ViewGroup.LayoutParams lp = new ViewGroup.LayoutParams(1, 1);
@@ -179,12 +447,52 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 	protected void onPause() {
 		stopPreview = true;
 		super.onPause();		
-		// Make sure to release the camera immediately on pause.
-		releaseCamera();		
+		if (mDisplayManager != null) {
+			mDisplayManager.unregisterDisplayListener(mDisplayListener);
+			mDisplayManager = null;
+		}
+		mFrameLatencyStats.stopPeriodicDump();
+		// Make sure to release the camera immediately on pause. This happens on
+		// the camera thread, so no preview callback can be running meanwhile.
+		runOnCameraThread(new Runnable() {
+			@Override
+			public void run() {
+				releaseCamera();
+			}
+		});
+		stopCameraThread();
+		Log.i(TAG, "Frames dropped - " + mFrameDropStats);
+		Log.i(TAG, "Latency since exposure - " + mFrameLatencyStats);
+		if (mFrameExchange != null) {
+			Log.i(TAG, "Frames produced: " + mFrameExchange.getProducedCount()
+					+ " consumed: " + mFrameExchange.getConsumedCount()
+					+ " overwritten: " + mFrameExchange.getOverwrittenCount());
+		}
+		for (FramePipeline.Stage stage : mFramePipeline.getStages()) {
+			Log.i(TAG, "Stage " + stage);
+		}
+		Log.i(TAG, "Frame pool: " + mFramePool.getAllocatedBytes() + " bytes, exhausted "
+				+ mFramePool.getExhaustedCount() + " times");
+		if (mRawFrameRecorder != null) {
+			Log.i(TAG, "Raw frames recorded to " + mRawFrameRecorder);
+		}
 		// remove the SurfaceView
 		ViewGroup parent = (ViewGroup) mPreview.getParent(); 
 		parent.removeView(mPreview);
 	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (mRawFrameRecorder != null) {
+			mFramePipeline.setRecorder(null);
+			mRawFrameRecorder.close();
+		}
+		// stop the conversion worker threads
+		if (mYuvConverter instanceof ParallelYuvConverter) {
+			((ParallelYuvConverter) mYuvConverter).shutdown();
+		}
+	}
 	
 
 	private void releaseCamera() {
@@ -197,7 +505,44 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 		}
 	}
 
-	// prepares the Camera preview callback buffers.
+	private void startCameraThread() {
+		mCameraThread = new HandlerThread("CameraPreview", mCameraThreadPriority);
+		mCameraThread.start();
+		mCameraHandler = new Handler(mCameraThread.getLooper());
+	}
+
+	private void stopCameraThread() {
+		mCameraThread.quitSafely();
+		try {
+			mCameraThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		mCameraThread = null;
+		mCameraHandler = null;
+	}
+
+	// Runs the task on the camera thread and waits until it is done.
+	private void runOnCameraThread(final Runnable task) {
+		final CountDownLatch done = new CountDownLatch(1);
+		mCameraHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// prepares the Camera preview callback buffers, on the camera thread.
 	public void preparePreviewCallbackBuffer() {		
 		int pformat;
 		pformat = mCamera.getParameters().getPreviewFormat();
@@ -209,86 +554,45 @@ public class CameraAccessJMEActivity extends AndroidHarness {
 		// They can differ from the requested width mDesiredCameraPreviewWidth
 		mPreviewWidth = mCamera.getParameters().getPreviewSize().width;
 		mPreviewHeight = mCamera.getParameters().getPreviewSize().height;
-		int bufferSizeRGB565 = mPreviewWidth * mPreviewHeight * 2 + 4096;
-		//Delete buffer before creating a new one.
-		mPreviewBufferRGB565 = null;		
-		mPreviewBufferRGB565 = new byte[bufferSizeRGB565];
-		mPreviewByteBufferRGB565 = ByteBuffer.allocateDirect(mPreviewBufferRGB565.length);
-		cameraJMEImageRGB565 = new Image(Image.Format.RGB565, mPreviewWidth,
-				mPreviewHeight, mPreviewByteBufferRGB565, ColorSpace.Linear);
-	}
-
-	public static void yCbCrToRGB565(byte[] YCBCRs, int width, int height,
-			byte[] rgbs) {
-		// the end of the luminance data
-		final int lumEnd = width * height;
-		// points to the next luminance value pair
-		int lumPtr = 0;
-		// points to the next chromiance value pair
-		int chrPtr = lumEnd;
-		// points to the next byte output pair of RGB565 value
-		int outPtr = 0;
-		// the end of the current luminance scanline
-		int lineEnd = width;
-
-		while (true) {
-
-			// skip back to the start of the chromiance values when necessary
-			if (lumPtr == lineEnd) {
-				if (lumPtr == lumEnd)
-					break; // we've reached the end
-				// division here is a bit expensive, but's only done once per
-				// scanline
-				chrPtr = lumEnd + ((lumPtr >> 1) / width) * width;
-				lineEnd += width;
+		prepareFrameOutput();
+		// the ring of preview buffers the camera fills
+		if (mPreviewCallbackBufferCount > 0) {
+			int frameSize = mPreviewWidth * mPreviewHeight
+					* ImageFormat.getBitsPerPixel(pformat) / 8;
+			mPreviewCallbackBuffers = new byte[mPreviewCallbackBufferCount][];
+			mPreviewCallbackByteBuffers = new ByteBuffer[mPreviewCallbackBufferCount];
+			for (int i = 0; i < mPreviewCallbackBufferCount; i++) {
+				mPreviewCallbackBuffers[i] = new byte[frameSize];
+				mPreviewCallbackByteBuffers[i] = ByteBuffer.wrap(mPreviewCallbackBuffers[i]);
+				mCamera.addCallbackBuffer(mPreviewCallbackBuffers[i]);
 			}
+		} else {
+			mPreviewCallbackBuffers = null;
+			mPreviewCallbackByteBuffers = null;
+		}
+	}
 
-			// read the luminance and chromiance values
-			final int Y1 = YCBCRs[lumPtr++] & 0xff;
-			final int Y2 = YCBCRs[lumPtr++] & 0xff;
-			final int Cr = (YCBCRs[chrPtr++] & 0xff) - 128;
-			final int Cb = (YCBCRs[chrPtr++] & 0xff) - 128;
-			int R, G, B;
-
-			// generate first RGB components
-			B = Y1 + ((454 * Cb) >> 8);
-			if (B < 0)
-				B = 0;
-			else if (B > 255)
-				B = 255;
-			G = Y1 - ((88 * Cb + 183 * Cr) >> 8);
-			if (G < 0)
-				G = 0;
-			else if (G > 255)
-				G = 255;
-			R = Y1 + ((359 * Cr) >> 8);
-			if (R < 0)
-				R = 0;
-			else if (R > 255)
-				R = 255;
-			// NOTE: this assume little-endian encoding
-			rgbs[outPtr++] = (byte) (((G & 0x3c) << 3) | (B >> 3));
-			rgbs[outPtr++] = (byte) ((R & 0xf8) | (G >> 5));
-
-			// generate second RGB components
-			B = Y2 + ((454 * Cb) >> 8);
-			if (B < 0)
-				B = 0;
-			else if (B > 255)
-				B = 255;
-			G = Y2 - ((88 * Cb + 183 * Cr) >> 8);
-			if (G < 0)
-				G = 0;
-			else if (G > 255)
-				G = 255;
-			R = Y2 + ((359 * Cr) >> 8);
-			if (R < 0)
-				R = 0;
-			else if (R > 255)
-				R = 255;
-			// NOTE: this assume little-endian encoding
-			rgbs[outPtr++] = (byte) (((G & 0x3c) << 3) | (B >> 3));
-			rgbs[outPtr++] = (byte) ((R & 0xf8) | (G >> 5));
+	// creates the exchange and the image of the converted frames in their
+	// current size and orientation and hands them to the application
+	private void prepareFrameOutput() {
+		Image.Format videoFormat = mYuvConverter.getOutputFormat();
+		// the texture has the size of the possibly downscaled frames
+		int videoWidth = mYuvConverter.getOutputWidth(mPreviewWidth, mPreviewHeight);
+		int videoHeight = mYuvConverter.getOutputHeight(mPreviewWidth, mPreviewHeight);
+		// the frames come from the pool, which lets go of the frames of the
+		// previous size
+		mFramePool.trim();
+		mFrameExchange = new FrameExchange<PooledFrame>();
+		mFramePipeline.setOutput(mFrameExchange);
+		cameraJMEImageRGB565 = new Image(videoFormat, videoWidth,
+				videoHeight, null, ColorSpace.Linear);
+		if ((com.ar4android.cameraAccessJME.JmeARapplication) app != null) {
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setCameraFrames(mFrameExchange, cameraJMEImageRGB565);
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setFrameLatencyStats(mFrameLatencyStats);
+			((com.ar4android.cameraAccessJME.JmeARapplication) app)
+					.setDoubleBufferedUpload(mDoubleBufferedUpload);
 		}
 	}
 
@@ -0,0 +1,201 @@
+package com.ar4android.cameraAccessJME;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, allocation free view onto the three planes of a YUV 4:2:0 camera frame.
+ * <p>
+ * The plane buffers are not copied: they stay owned by whoever produced the frame (e.g. the
+ * {@link android.media.Image} of an {@link android.media.ImageReader}) and are only valid
+ * until the producer releases them again. Consumers which need the pixels afterwards have to
+ * convert or copy them while the frame is being delivered.
+ * <p>
+ * Both chroma planes are expected to share the same row and pixel stride, which is what
+ * {@link android.graphics.ImageFormat#YUV_420_888} guarantees.
+ * <p>
+ * Besides the planes the frame carries when it was exposed and its number in the sequence of
+ * frames the camera delivered, so consumers can tell how old a frame is and whether frames
+ * went missing in between.
+ */
+public class CameraFrame {
+
+    /**
+     * The format of frames set with {@link #setNv21}, the value of
+     * {@link android.graphics.ImageFormat#NV21}.
+     */
+    public static final int FORMAT_NV21 = 0x11;
+    /**
+     * The format of frames set with {@link #setPlanes}, the value of
+     * {@link android.graphics.ImageFormat#YUV_420_888}.
+     */
+    public static final int FORMAT_YUV_420_888 = 0x23;
+
+    private ByteBuffer mYBuffer;
+    private ByteBuffer mUBuffer;
+    private ByteBuffer mVBuffer;
+    private int mYOffset;
+    private int mUOffset;
+    private int mVOffset;
+    private int mYRowStride;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+    private int mWidth;
+    private int mHeight;
+    private int mFormat;
+    private long mTimestampNs;
+    private boolean mTimestampRealtime;
+    private long mFrameNumber;
+
+    /**
+     * Points this frame at a new set of planes.
+     *
+     * @param yBuffer       The luminance plane
+     * @param yRowStride    The distance in bytes between two luminance rows
+     * @param uBuffer       The Cb chroma plane
+     * @param vBuffer       The Cr chroma plane
+     * @param uvRowStride   The distance in bytes between two chroma rows
+     * @param uvPixelStride The distance in bytes between two chroma samples of the same row
+     * @param width         The frame width in pixels
+     * @param height        The frame height in pixels
+     */
+    public void setPlanes(ByteBuffer yBuffer, int yRowStride, ByteBuffer uBuffer, ByteBuffer vBuffer,
+                          int uvRowStride, int uvPixelStride, int width, int height) {
+        mYBuffer = yBuffer;
+        mYOffset = 0;
+        mYRowStride = yRowStride;
+        mUBuffer = uBuffer;
+        mUOffset = 0;
+        mVBuffer = vBuffer;
+        mVOffset = 0;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        mWidth = width;
+        mHeight = height;
+        mFormat = FORMAT_YUV_420_888;
+    }
+
+    /**
+     * Points this frame at a semi-planar NV21 buffer as delivered by the old
+     * {@link android.hardware.Camera} API: a full luminance plane followed by interleaved
+     * Cr/Cb samples.
+     *
+     * @param nv21   The NV21 frame data
+     * @param width  The frame width in pixels
+     * @param height The frame height in pixels
+     */
+    public void setNv21(ByteBuffer nv21, int width, int height) {
+        final int lumEnd = width * height;
+        mYBuffer = nv21;
+        mYOffset = 0;
+        mYRowStride = width;
+        mVBuffer = nv21;
+        mVOffset = lumEnd;
+        mUBuffer = nv21;
+        mUOffset = lumEnd + 1;
+        mUvRowStride = width;
+        mUvPixelStride = 2;
+        mWidth = width;
+        mHeight = height;
+        mFormat = FORMAT_NV21;
+    }
+
+    /**
+     * Sets when the current frame was taken.
+     *
+     * @param timestampNs       The start of the exposure in nanoseconds, or if the camera does
+     *                          not report it, the time the frame arrived
+     * @param timestampRealtime Whether the timestamp is on the
+     *                          {@link android.os.SystemClock#elapsedRealtimeNanos()} time base,
+     *                          which makes it comparable to sensor events and the render time.
+     *                          Otherwise it is only comparable to other frames of the camera.
+     * @param frameNumber       The number of the frame, counting the frames the camera
+     *                          delivered and the ones it is known to have dropped, so gaps
+     *                          reveal the latter, or -1 if it is unknown
+     */
+    public void setTimestamp(long timestampNs, boolean timestampRealtime, long frameNumber) {
+        mTimestampNs = timestampNs;
+        mTimestampRealtime = timestampRealtime;
+        mFrameNumber = frameNumber;
+    }
+
+    public ByteBuffer getYBuffer() {
+        return mYBuffer;
+    }
+
+    public ByteBuffer getUBuffer() {
+        return mUBuffer;
+    }
+
+    public ByteBuffer getVBuffer() {
+        return mVBuffer;
+    }
+
+    /**
+     * @return The index of the first luminance sample in {@link #getYBuffer()}
+     */
+    public int getYOffset() {
+        return mYOffset;
+    }
+
+    /**
+     * @return The index of the first Cb sample in {@link #getUBuffer()}
+     */
+    public int getUOffset() {
+        return mUOffset;
+    }
+
+    /**
+     * @return The index of the first Cr sample in {@link #getVBuffer()}
+     */
+    public int getVOffset() {
+        return mVOffset;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return {@link #FORMAT_NV21} or {@link #FORMAT_YUV_420_888}
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @see #setTimestamp(long, boolean, long)
+     */
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    /**
+     * @see #setTimestamp(long, boolean, long)
+     */
+    public boolean isTimestampRealtime() {
+        return mTimestampRealtime;
+    }
+
+    /**
+     * @see #setTimestamp(long, boolean, long)
+     */
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+}
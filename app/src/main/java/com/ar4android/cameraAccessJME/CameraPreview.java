@@ -11,6 +11,7 @@ package com.ar4android.cameraAccessJME;
 
 import android.content.Context;
 import android.hardware.Camera;
+import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -20,11 +21,28 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 	private SurfaceHolder mHolder;
     private Camera mCamera;
     private Camera.PreviewCallback mCameraPreviewCallback;
+    // whether the frames are delivered in buffers added with Camera.addCallbackBuffer
+    private boolean mUseCallbackBuffers;
+    // the thread the camera is used on, or null to use it on the UI thread
+    private Handler mCameraHandler;
+    private final Runnable mRestartPreview = new Runnable() {
+        @Override
+        public void run() {
+            restartPreview();
+        }
+    };
 
     public CameraPreview(Context context, Camera camera, Camera.PreviewCallback cameraCallback) {
+        this(context, camera, cameraCallback, false, null);
+    }
+
+    public CameraPreview(Context context, Camera camera, Camera.PreviewCallback cameraCallback,
+                         boolean useCallbackBuffers, Handler cameraHandler) {
         super(context);
         mCamera = camera;
         mCameraPreviewCallback=cameraCallback;
+        mUseCallbackBuffers = useCallbackBuffers;
+        mCameraHandler = cameraHandler;
         // Install a SurfaceHolder.Callback so we get notified when the
         // underlying surface is created and destroyed.
         mHolder = getHolder();
@@ -48,9 +66,16 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         	Log.e(TAG,"no preview surface (surfaceChanged)");
           return;
         }
-       
-        
-        
+
+        // the camera must only be used on the thread it was opened on
+        if (mCameraHandler != null) {
+            mCameraHandler.post(mRestartPreview);
+        } else {
+            restartPreview();
+        }
+    }
+
+    private void restartPreview() {
         // stop preview before making changes
         try {
             mCamera.stopPreview();
@@ -68,7 +93,11 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         	}
         	else
         	{
-        		mCamera.setPreviewCallback(mCameraPreviewCallback);
+        		if (mUseCallbackBuffers) {
+        			mCamera.setPreviewCallbackWithBuffer(mCameraPreviewCallback);
+        		} else {
+        			mCamera.setPreviewCallback(mCameraPreviewCallback);
+        		}
         		mCamera.setPreviewDisplay(mHolder);
         		mCamera.startPreview();
         	}
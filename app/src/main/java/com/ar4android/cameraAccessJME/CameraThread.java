@@ -0,0 +1,121 @@
+package com.ar4android.cameraAccessJME;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+
+/**
+ * A {@link HandlerThread} of the camera with its own priority, which measures how long the
+ * messages and runnables posted to it waited in its queue before they ran.
+ */
+public class CameraThread {
+
+    /**
+     * Records the queue wait time of every message it dispatches, without allocating.
+     */
+    private final class WaitTimeHandler extends Handler {
+
+        WaitTimeHandler(HandlerThread thread) {
+            super(thread.getLooper());
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            // getWhen() is the uptime the message became due, so delayed posts do not count
+            // their delay as waiting
+            final long waitMillis = SystemClock.uptimeMillis() - msg.getWhen();
+            mMessageCount++;
+            mTotalWaitMillis += waitMillis;
+            if (waitMillis > mMaxWaitMillis) {
+                mMaxWaitMillis = waitMillis;
+            }
+            super.dispatchMessage(msg);
+        }
+    }
+
+    private final String mName;
+    private final int mPriority;
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // only written by the thread itself
+    private volatile long mMessageCount;
+    private volatile long mTotalWaitMillis;
+    private volatile long mMaxWaitMillis;
+
+    /**
+     * @param name     The name of the thread
+     * @param priority The {@link android.os.Process} priority of the thread
+     */
+    public CameraThread(String name, int priority) {
+        mName = name;
+        mPriority = priority;
+    }
+
+    public void start() {
+        mThread = new HandlerThread(mName, mPriority);
+        mThread.start();
+        mHandler = new WaitTimeHandler(mThread);
+    }
+
+    /**
+     * Stops the thread once the messages already due are handled.
+     */
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mThread.quitSafely();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        mHandler = null;
+    }
+
+    /**
+     * @return The handler posting to the thread, or {@code null} while it is not running
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return The number of messages and runnables handled
+     */
+    public long getMessageCount() {
+        return mMessageCount;
+    }
+
+    /**
+     * @return The average time a message waited in the queue, in milliseconds
+     */
+    public long getAverageWaitMillis() {
+        final long messages = mMessageCount;
+        return messages > 0 ? mTotalWaitMillis / messages : 0;
+    }
+
+    /**
+     * @return The longest time a message waited in the queue, in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return mMaxWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": " + mMessageCount + " messages, waited avg " + getAverageWaitMillis()
+                + " ms, max " + mMaxWaitMillis + " ms";
+    }
+}
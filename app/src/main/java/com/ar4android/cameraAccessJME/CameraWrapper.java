@@ -1,5 +1,6 @@
 package com.ar4android.cameraAccessJME;
 
+import android.util.Range;
 import android.util.Size;
 
 import java.io.File;
@@ -9,11 +10,26 @@ import java.io.File;
  */
 public interface CameraWrapper {
     interface PreviewCallback {
-        public void onPreviewFrame(byte[] data);
+        /**
+         * Called for every preview frame. The planes of {@code frame} are only valid until
+         * this method returns; its timestamp and frame number tell when it was exposed.
+         */
+        public void onPreviewFrame(CameraFrame frame);
     }
 
     interface PreviewSizeCallback {
-        public void onPreviewSizeChange(Size previewSize);
+        /**
+         * Called once the preview size is known, before the first frame is delivered, and
+         * again whenever the stream is reconfigured to another size, before the first frame of
+         * that size is delivered.
+         *
+         * @param previewSize The size of the preview frames
+         * @param rotation    The clockwise rotation in degrees which turns the frames upright on
+         *                    the display
+         * @param mirrored    Whether the frames have to be flipped horizontally before they are
+         *                    rotated, as is the case for a front facing camera
+         */
+        public void onPreviewSizeChange(Size previewSize, int rotation, boolean mirrored);
     }
 
     Size openCamera(int width, int height);
@@ -21,4 +37,62 @@ public interface CameraWrapper {
     void takePicture(File picFile);
     void setPreviewCallback(PreviewCallback cb);
     void setPreviewSizeCallback(PreviewSizeCallback cb);
+
+    /**
+     * Chooses how preview frames arriving faster than the preview callback handles them are
+     * dealt with. Takes effect with the next {@link #openCamera(int, int)}.
+     *
+     * @param policy     The policy
+     * @param queueDepth The number of frames which may wait for the preview callback, used by
+     *                   {@link BackpressurePolicy#BOUNDED_QUEUE} and
+     *                   {@link BackpressurePolicy#BLOCK_PRODUCER}
+     */
+    void setBackpressurePolicy(BackpressurePolicy policy, int queueDepth);
+
+    /**
+     * @param stats Counts the preview frames passed on and dropped at
+     *              {@link FrameDropStats.Stage#CAMERA}
+     */
+    void setFrameDropStats(FrameDropStats stats);
+
+    /**
+     * @param stats Records when the preview frames became available and were acquired, or
+     *              {@code null} to record nothing
+     */
+    void setFrameLatencyStats(FrameLatencyStats stats);
+
+    /**
+     * @return The sizes the preview stream can be reconfigured to, with the aspect ratio of the
+     * size chosen by {@link #openCamera(int, int)} and at most as large, smallest first. Empty
+     * before the camera was opened.
+     */
+    Size[] getSupportedPreviewSizes();
+
+    /**
+     * Reconfigures the preview stream to another of the {@link #getSupportedPreviewSizes()}
+     * without closing the camera. The {@link PreviewSizeCallback} is called with the new size
+     * before its first frame is delivered. Ignored while the camera is not previewing.
+     */
+    void setPreviewStreamSize(Size size);
+
+    /**
+     * @return The auto exposure target frame rate ranges the camera supports, or {@code null}
+     * before the camera was opened
+     */
+    Range<Integer>[] getAvailableFpsRanges();
+
+    /**
+     * Asks the auto exposure to keep the frame rate within {@code range}, one of the
+     * {@link #getAvailableFpsRanges()}. Applies to the running preview right away.
+     *
+     * @param range The range, or {@code null} to leave it to the camera
+     */
+    void setTargetFpsRange(Range<Integer> range);
+
+    /**
+     * Checks the rotation of the display, e.g. after it was turned, and calls the
+     * {@link PreviewSizeCallback} again with the rotation of the frames if that changed, between
+     * two frames.
+     */
+    void updateDisplayRotation();
 }
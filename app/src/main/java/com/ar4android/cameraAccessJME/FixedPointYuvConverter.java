@@ -0,0 +1,168 @@
+package com.ar4android.cameraAccessJME;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts a YUV 4:2:0 {@link CameraFrame} into RGB pixels using fixed-point arithmetic.
+ * <p>
+ * The planes are read directly from their (usually direct) {@link ByteBuffer}s honouring row
+ * and pixel strides, and the result is written straight into the destination buffer, so no
+ * intermediate arrays are allocated per frame.
+ */
+public class FixedPointYuvConverter extends AbstractYuvConverter {
+
+    @Override
+    public void convertRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        if (getDownscale() != 1) {
+            convertScaledRows(frame, out, startRow, endRow);
+            return;
+        }
+        switch (getOutputFormat()) {
+            case Luminance8:
+                convertLuminanceRows(frame, out, startRow, endRow);
+                break;
+            case RGB565:
+                convertRgb565Rows(frame, out, startRow, endRow);
+                break;
+            default:
+                convertRgbRows(frame, out, startRow, endRow);
+                break;
+        }
+    }
+
+    @Override
+    protected int toRgb(int Y, int Cb, int Cr) {
+        final YuvColorMatrix matrix = getColorMatrix();
+        final int lum = luminance(Y, matrix.yOffsetFixed, matrix.yScaleFixed);
+        final int cb = Cb - 128;
+        final int cr = Cr - 128;
+        final int R = clamp(lum + ((matrix.crToRFixed * cr) >> 8));
+        final int G = clamp(lum - ((matrix.cbToGFixed * cb + matrix.crToGFixed * cr) >> 8));
+        final int B = clamp(lum + ((matrix.cbToBFixed * cb) >> 8));
+        return (R << 16) | (G << 8) | B;
+    }
+
+    private void convertRgb565Rows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yOffset = frame.getYOffset();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final YuvColorMatrix matrix = getColorMatrix();
+        final int yOff = matrix.yOffsetFixed;
+        final int yScale = matrix.yScaleFixed;
+        final int crToR = matrix.crToRFixed;
+        final int cbToG = matrix.cbToGFixed;
+        final int crToG = matrix.crToGFixed;
+        final int cbToB = matrix.cbToBFixed;
+
+        final int columnStep = getColumnStep(width, height) * 2;
+        final int rowStep = getRowStep(width, height) * 2;
+        final int firstPtr = getFirstPixel(width, height) * 2;
+
+        for (int row = startRow; row < endRow; row++) {
+            // points to the next RGB565 output value
+            int outPtr = firstPtr + row * rowStep;
+            // points to the next luminance value pair
+            int yPtr = yOffset + row * yRowStride;
+            // points to the chromiance values shared by this and the next scanline
+            int uvPtr = (row >> 1) * uvRowStride;
+            for (int col = 0; col < width; col += 2) {
+                // read the luminance and chromiance values
+                final int Y1 = luminance(yBuf.get(yPtr) & 0xff, yOff, yScale);
+                final int Y2 = luminance(yBuf.get(yPtr + 1) & 0xff, yOff, yScale);
+                final int Cr = (vBuf.get(vOffset + uvPtr) & 0xff) - 128;
+                final int Cb = (uBuf.get(uOffset + uvPtr) & 0xff) - 128;
+                yPtr += 2;
+                uvPtr += uvPixelStride;
+
+                // the chroma contributions are shared by both pixels of the pair
+                final int bOffset = (cbToB * Cb) >> 8;
+                final int gOffset = (cbToG * Cb + crToG * Cr) >> 8;
+                final int rOffset = (crToR * Cr) >> 8;
+
+                out.putShort(outPtr, rgb565(clamp(Y1 + rOffset), clamp(Y1 - gOffset), clamp(Y1 + bOffset)));
+                out.putShort(outPtr + columnStep, rgb565(clamp(Y2 + rOffset), clamp(Y2 - gOffset), clamp(Y2 + bOffset)));
+                outPtr += 2 * columnStep;
+            }
+        }
+    }
+
+    /**
+     * Converts rows into {@link com.jme3.texture.Image.Format#RGB8} or
+     * {@link com.jme3.texture.Image.Format#RGBA8}.
+     */
+    private void convertRgbRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yOffset = frame.getYOffset();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final YuvColorMatrix matrix = getColorMatrix();
+        final int yOff = matrix.yOffsetFixed;
+        final int yScale = matrix.yScaleFixed;
+        final int crToR = matrix.crToRFixed;
+        final int cbToG = matrix.cbToGFixed;
+        final int crToG = matrix.crToGFixed;
+        final int cbToB = matrix.cbToBFixed;
+        final int bytesPerPixel = getBytesPerPixel();
+        final boolean alpha = bytesPerPixel == 4;
+
+        final int columnStep = getColumnStep(width, height) * bytesPerPixel;
+        final int rowStep = getRowStep(width, height) * bytesPerPixel;
+        final int firstPtr = getFirstPixel(width, height) * bytesPerPixel;
+
+        for (int row = startRow; row < endRow; row++) {
+            int outPtr = firstPtr + row * rowStep;
+            int yPtr = yOffset + row * yRowStride;
+            int uvPtr = (row >> 1) * uvRowStride;
+            for (int col = 0; col < width; col += 2) {
+                final int Y1 = luminance(yBuf.get(yPtr) & 0xff, yOff, yScale);
+                final int Y2 = luminance(yBuf.get(yPtr + 1) & 0xff, yOff, yScale);
+                final int Cr = (vBuf.get(vOffset + uvPtr) & 0xff) - 128;
+                final int Cb = (uBuf.get(uOffset + uvPtr) & 0xff) - 128;
+                yPtr += 2;
+                uvPtr += uvPixelStride;
+
+                final int bOffset = (cbToB * Cb) >> 8;
+                final int gOffset = (cbToG * Cb + crToG * Cr) >> 8;
+                final int rOffset = (crToR * Cr) >> 8;
+
+                putRgb(out, outPtr, clamp(Y1 + rOffset), clamp(Y1 - gOffset), clamp(Y1 + bOffset), alpha);
+                putRgb(out, outPtr + columnStep, clamp(Y2 + rOffset), clamp(Y2 - gOffset), clamp(Y2 + bOffset), alpha);
+                outPtr += 2 * columnStep;
+            }
+        }
+    }
+
+    /**
+     * Stretches a luminance sample to 0..255, which leaves full range samples unchanged.
+     */
+    private static int luminance(int Y, int yOffset, int yScale) {
+        return (yScale * (Y - yOffset) + 128) >> 8;
+    }
+
+    private static int clamp(int value) {
+        if (value < 0)
+            return 0;
+        else if (value > 255)
+            return 255;
+        return value;
+    }
+
+    private static short rgb565(int R, int G, int B) {
+        return (short) (((R & 0xf8) << 8) | ((G & 0xfc) << 3) | (B >> 3));
+    }
+}
@@ -0,0 +1,78 @@
+package com.ar4android.cameraAccessJME;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the frames passing and dropped at every stage of the frame path, from the camera to
+ * the renderer. The counters may be updated and read from any thread.
+ */
+public class FrameDropStats {
+
+    public enum Stage {
+        /**
+         * Frames the camera delivered which were dropped before they were processed. Camera1
+         * does not report the frames it skipped for lack of a free preview buffer; a gap between
+         * two callbacks cannot tell them from a frame rate lowered by the auto exposure, so none
+         * are counted.
+         */
+        CAMERA,
+        /**
+         * Processed frames which got no buffer as the frame pool reached its memory cap.
+         */
+        FRAME_POOL,
+        /**
+         * Converted frames replaced by a newer one before the renderer took them.
+         */
+        RENDER
+    }
+
+    private final AtomicLongArray mPassed = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray mDropped = new AtomicLongArray(Stage.values().length);
+
+    public void countPassed(Stage stage) {
+        mPassed.incrementAndGet(stage.ordinal());
+    }
+
+    public void countDropped(Stage stage) {
+        mDropped.incrementAndGet(stage.ordinal());
+    }
+
+    /**
+     * @return The number of frames which made it past {@code stage}
+     */
+    public long getPassedCount(Stage stage) {
+        return mPassed.get(stage.ordinal());
+    }
+
+    /**
+     * @return The number of frames dropped at {@code stage}
+     */
+    public long getDroppedCount(Stage stage) {
+        return mDropped.get(stage.ordinal());
+    }
+
+    /**
+     * @return The number of frames dropped at all stages together
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (int i = 0; i < mDropped.length(); i++) {
+            dropped += mDropped.get(i);
+        }
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(stage).append(": ").append(getDroppedCount(stage))
+                    .append(" of ").append(getPassedCount(stage) + getDroppedCount(stage))
+                    .append(" dropped");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package com.ar4android.cameraAccessJME;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands frames from one producer thread to one consumer thread through three slots, without
+ * locks and without either side ever waiting for the other.
+ * <p>
+ * The producer owns one slot it writes the next frame into, the consumer owns the slot of the
+ * frame it is currently using, and the third slot holds the latest complete frame. Publishing
+ * swaps the producer's slot with the third one, taking a frame swaps the consumer's slot with
+ * it. A frame the consumer did not take before the next one was published is overwritten, so
+ * the consumer always gets the most recent frame and the producer never has to wait for it.
+ * <p>
+ * Instead of writing into fixed slots the producer can also publish frames by reference with
+ * {@link #publish(Object)}, e.g. {@link PooledFrame}s which are handed back to their pool once
+ * they leave the exchange.
+ * <p>
+ * {@link #beginWrite()} and both {@code publish} methods must only be called by the producer,
+ * {@link #acquireLatest()} and {@link #getCurrent()} only by the consumer.
+ *
+ * @param <T> The type of the slots, e.g. the buffers the frames are stored in
+ */
+public class FrameExchange<T> {
+
+    /**
+     * Set in {@link #mSpare} while the slot it names holds a frame not taken yet.
+     */
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] mSlots;
+
+    /**
+     * The index of the slot between producer and consumer, plus {@link #FRESH}.
+     */
+    private final AtomicInteger mSpare = new AtomicInteger(0);
+    // only accessed by the producer
+    private int mBack = 1;
+    // only accessed by the consumer
+    private int mFront = 2;
+
+    // each counter is only written by one side
+    private volatile long mProduced;
+    private volatile long mConsumed;
+    private volatile long mOverwritten;
+
+    /**
+     * Creates an exchange with empty slots, for frames published with {@link #publish(Object)}.
+     */
+    public FrameExchange() {
+        this(null, null, null);
+    }
+
+    public FrameExchange(T first, T second, T third) {
+        mSlots = new Object[]{first, second, third};
+    }
+
+    /**
+     * @return The slot to write the next frame into
+     */
+    @SuppressWarnings("unchecked")
+    public T beginWrite() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Makes the frame written into the slot returned by {@link #beginWrite()} the latest one.
+     */
+    public void publish() {
+        final int previous = mSpare.getAndSet(mBack | FRESH);
+        mBack = previous & INDEX_MASK;
+        mProduced++;
+        if ((previous & FRESH) != 0) {
+            mOverwritten++;
+        }
+    }
+
+    /**
+     * Puts a frame into the producer's slot and makes it the latest one.
+     *
+     * @return The frame which left the exchange in return, either one the consumer was done
+     * with or one it never took, or {@code null}. The caller is responsible for it again, e.g.
+     * releases it.
+     */
+    @SuppressWarnings("unchecked")
+    public T publish(T frame) {
+        mSlots[mBack] = frame;
+        publish();
+        final T displaced = (T) mSlots[mBack];
+        mSlots[mBack] = null;
+        return displaced;
+    }
+
+    /**
+     * Moves the frames still held by the exchange into {@code out} and empties all slots. Only
+     * allowed once the producer stopped publishing into this exchange; the frame the consumer
+     * took last is moved too, so it must not be used afterwards.
+     */
+    @SuppressWarnings("unchecked")
+    public void drainTo(Collection<? super T> out) {
+        for (int i = 0; i < mSlots.length; i++) {
+            if (mSlots[i] != null) {
+                out.add((T) mSlots[i]);
+                mSlots[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Takes the latest frame. The slot returned stays owned by the consumer until it takes
+     * the next frame.
+     *
+     * @return The latest frame, or {@code null} if none was published since the last call
+     */
+    @SuppressWarnings("unchecked")
+    public T acquireLatest() {
+        if ((mSpare.get() & FRESH) == 0) {
+            return null;
+        }
+        mFront = mSpare.getAndSet(mFront) & INDEX_MASK;
+        mConsumed++;
+        return (T) mSlots[mFront];
+    }
+
+    /**
+     * @return The slot of the frame most recently taken by the consumer
+     */
+    @SuppressWarnings("unchecked")
+    public T getCurrent() {
+        return (T) mSlots[mFront];
+    }
+
+    public long getProducedCount() {
+        return mProduced;
+    }
+
+    public long getConsumedCount() {
+        return mConsumed;
+    }
+
+    /**
+     * @return The number of frames replaced by a newer one before the consumer took them
+     */
+    public long getOverwrittenCount() {
+        return mOverwritten;
+    }
+}
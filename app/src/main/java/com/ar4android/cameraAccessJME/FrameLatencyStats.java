@@ -0,0 +1,159 @@
+package com.ar4android.cameraAccessJME;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Records how long after their exposure the camera frames reach every point of the way to the
+ * screen, in one {@link LatencyHistogram} per point.
+ * <p>
+ * Only frames with a timestamp on the {@link SystemClock#elapsedRealtimeNanos()} time base are
+ * recorded; for Camera1 that is the time the frame arrived instead of its exposure. The
+ * histograms cover 0 to 250 ms in 250 us steps. They may be recorded and read from any thread.
+ */
+public class FrameLatencyStats {
+
+    private static final String TAG = "FrameLatencyStats";
+
+    private static final long BUCKET_NANOS = 250000;
+    private static final int BUCKET_COUNT = 1000;
+
+    public enum Point {
+        /**
+         * The image reader announced the frame. Only recorded for Camera2.
+         */
+        IMAGE_AVAILABLE,
+        /**
+         * The frame was taken from the image reader for processing. Only recorded for Camera2.
+         */
+        IMAGE_ACQUIRED,
+        /**
+         * The frame was converted into a {@link PooledFrame}.
+         */
+        CONVERTED,
+        /**
+         * The frame ran through all stages of the pipeline and was handed to the renderer.
+         */
+        PUBLISHED,
+        /**
+         * The frame was uploaded as the video background texture and rendered.
+         */
+        UPLOADED
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Point.values().length];
+    private Timer mDumpTimer;
+
+    public FrameLatencyStats() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram(BUCKET_NANOS, BUCKET_COUNT);
+        }
+    }
+
+    /**
+     * Records that a frame reached {@code point} now.
+     *
+     * @param timestampNs       The timestamp of the frame
+     * @param timestampRealtime Whether the timestamp is on the
+     *                          {@link SystemClock#elapsedRealtimeNanos()} time base; otherwise
+     *                          nothing is recorded
+     */
+    public void record(Point point, long timestampNs, boolean timestampRealtime) {
+        if (timestampRealtime) {
+            recordAt(point, timestampNs, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    /**
+     * Records that a frame reached {@code point} at {@code nowNs}, e.g. a time taken earlier.
+     */
+    public void recordAt(Point point, long timestampNs, long nowNs) {
+        mHistograms[point.ordinal()].record(nowNs - timestampNs);
+    }
+
+    public LatencyHistogram getHistogram(Point point) {
+        return mHistograms[point.ordinal()];
+    }
+
+    /**
+     * @return The given percentile of the latency at {@code point} in nanoseconds
+     * @see LatencyHistogram#getPercentileNanos(double)
+     */
+    public long getPercentileNanos(Point point, double percentile) {
+        return getHistogram(point).getPercentileNanos(percentile);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Logs the latencies of all points and, if {@code file} is not {@code null}, appends them
+     * to it.
+     */
+    public void dump(File file) {
+        final String dump = toString();
+        Log.i(TAG, dump);
+        if (file != null) {
+            FileWriter writer = null;
+            try {
+                writer = new FileWriter(file, true);
+                writer.write(SystemClock.elapsedRealtime() + " " + dump + "\n");
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write latencies to " + file, e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Dumps the latencies every {@code intervalMs} milliseconds on a background thread until
+     * {@link #stopPeriodicDump()}.
+     *
+     * @param file The file to append the latencies to, or {@code null} to only log them
+     */
+    public synchronized void startPeriodicDump(long intervalMs, final File file) {
+        stopPeriodicDump();
+        mDumpTimer = new Timer("FrameLatencyDump", true);
+        mDumpTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                dump(file);
+            }
+        }, intervalMs, intervalMs);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (mDumpTimer != null) {
+            mDumpTimer.cancel();
+            mDumpTimer = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Point point : Point.values()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(point).append(": ").append(getHistogram(point));
+        }
+        return sb.toString();
+    }
+}
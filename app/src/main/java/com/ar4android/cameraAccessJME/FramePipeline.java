@@ -0,0 +1,374 @@
+package com.ar4android.cameraAccessJME;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Takes the preview frames from the camera through a chain of {@link FrameProcessor}s to the
+ * renderer.
+ * <p>
+ * Every frame is converted by a {@link YuvConverter} into a {@link PooledFrame}, passed through
+ * the stages in the order they were added and finally published to the render thread through a
+ * {@link FrameExchange}. A stage either runs on the thread delivering the frames and may replace
+ * or drop the frame, or runs on an executor of its own and just observes it. Such a stage gets a
+ * frame only when it is done with the previous one; the frames it misses meanwhile are counted
+ * as dropped, so a slow analysis or recording never holds up the preview.
+ * <p>
+ * A {@link RawFrameRecorder} may record the preview frames as they arrived. Once the converted
+ * frame was published, while the camera's planes are still valid, the thread delivering the
+ * frames copies them into a buffer of the recorder, whose own thread writes them into the file.
+ * The copy is all the recording adds to the delivering thread, and it is measured as the
+ * "record" stage; it still delays the next frame by its duration.
+ * <p>
+ * The time every stage takes is measured. Frames are only delivered by one thread at a time;
+ * stages may be added and removed from any thread while frames are flowing. No objects are
+ * allocated per frame.
+ */
+public class FramePipeline implements CameraWrapper.PreviewCallback {
+
+    /**
+     * A stage of the pipeline and its timings.
+     */
+    public static final class Stage {
+
+        private final String mName;
+        private final FrameProcessor mProcessor;
+        private final Executor mExecutor;
+        /**
+         * Set while the executor of the stage has a frame to process.
+         */
+        private final AtomicBoolean mBusy = new AtomicBoolean();
+        // the frame handed to the executor, published by Executor.execute()
+        private PooledFrame mPending;
+        private final Runnable mTask = new Runnable() {
+            @Override
+            public void run() {
+                final PooledFrame frame = mPending;
+                mPending = null;
+                try {
+                    final long start = System.nanoTime();
+                    mProcessor.process(frame);
+                    countFrame(System.nanoTime() - start);
+                } finally {
+                    frame.release();
+                    mBusy.set(false);
+                }
+            }
+        };
+
+        // each is only written by the thread running the stage at the time
+        private volatile long mFrameCount;
+        private volatile long mTotalNanos;
+        private volatile long mMaxNanos;
+        private volatile long mDroppedCount;
+
+        Stage(String name, FrameProcessor processor, Executor executor) {
+            mName = name;
+            mProcessor = processor;
+            mExecutor = executor;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return Whether the stage runs on an executor of its own
+         */
+        public boolean isAsynchronous() {
+            return mExecutor != null;
+        }
+
+        /**
+         * @return The number of frames the stage processed
+         */
+        public long getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return The number of frames the stage dropped or, if it runs on its own executor,
+         * missed as it was busy
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        /**
+         * @return The average time the stage took per frame, in nanoseconds
+         */
+        public long getAverageNanos() {
+            final long frames = mFrameCount;
+            return frames > 0 ? mTotalNanos / frames : 0;
+        }
+
+        /**
+         * @return The total time the stage took for all frames, in nanoseconds
+         */
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        /**
+         * @return The longest time the stage took for a frame, in nanoseconds
+         */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        void countFrame(long nanos) {
+            mFrameCount++;
+            mTotalNanos += nanos;
+            if (nanos > mMaxNanos) {
+                mMaxNanos = nanos;
+            }
+        }
+
+        void countDropped() {
+            mDroppedCount++;
+        }
+
+        /**
+         * Runs the stage for a frame the pipeline holds a reference to.
+         *
+         * @return The frame to hand on, or {@code null}
+         */
+        PooledFrame run(PooledFrame frame) {
+            if (mExecutor == null) {
+                final long start = System.nanoTime();
+                final PooledFrame out = mProcessor.process(frame);
+                countFrame(System.nanoTime() - start);
+                if (out != frame) {
+                    frame.release();
+                    if (out == null) {
+                        countDropped();
+                    }
+                }
+                return out;
+            }
+            if (!mBusy.compareAndSet(false, true)) {
+                countDropped();
+                return frame;
+            }
+            mPending = frame.retain();
+            try {
+                mExecutor.execute(mTask);
+            } catch (RejectedExecutionException e) {
+                mPending = null;
+                frame.release();
+                mBusy.set(false);
+                countDropped();
+            }
+            return frame;
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": " + mFrameCount + " frames, avg " + getAverageNanos() / 1000
+                    + " us, max " + mMaxNanos / 1000 + " us, " + mDroppedCount + " dropped";
+        }
+    }
+
+    private final FramePool mFramePool;
+    private final FrameDropStats mFrameDropStats;
+    private volatile YuvConverter mConverter;
+    private volatile FrameExchange<PooledFrame> mOutput;
+    private volatile FrameLatencyStats mLatencyStats;
+
+    private final Stage mConvertStage = new Stage("convert", null, null);
+    private final Stage mOutputStage = new Stage("output", null, null);
+    private final Stage mRecordStage = new Stage("record", null, null);
+    private volatile RawFrameRecorder mRecorder;
+    private volatile Stage[] mStages = new Stage[0];
+
+    /**
+     * @param framePool      The pool the converted frames are taken from
+     * @param frameDropStats Counts the frames dropped as the pool was exhausted or the renderer
+     *                       skipped them
+     */
+    public FramePipeline(FramePool framePool, FrameDropStats frameDropStats) {
+        mFramePool = framePool;
+        mFrameDropStats = frameDropStats;
+    }
+
+    public FramePool getFramePool() {
+        return mFramePool;
+    }
+
+    /**
+     * @param converter Converts the preview frames into the frames passed through the stages
+     */
+    public void setConverter(YuvConverter converter) {
+        mConverter = converter;
+    }
+
+    /**
+     * @param output The exchange the processed frames are published to the render thread
+     *               through. Frames coming back from it are released.
+     */
+    public void setOutput(FrameExchange<PooledFrame> output) {
+        mOutput = output;
+    }
+
+    /**
+     * @param latencyStats Records when the frames were converted and published, or
+     *                     {@code null} to record nothing
+     */
+    public void setLatencyStats(FrameLatencyStats latencyStats) {
+        mLatencyStats = latencyStats;
+    }
+
+    /**
+     * @param recorder Records the preview frames as they arrived, or {@code null} to record
+     *                 nothing
+     */
+    public void setRecorder(RawFrameRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    /**
+     * Appends a stage which runs on the thread delivering the frames.
+     */
+    public Stage addStage(String name, FrameProcessor processor) {
+        return addStage(name, processor, null);
+    }
+
+    /**
+     * Appends a stage.
+     *
+     * @param executor The executor the stage runs on, or {@code null} to run it on the thread
+     *                 delivering the frames
+     */
+    public synchronized Stage addStage(String name, FrameProcessor processor, Executor executor) {
+        final Stage stage = new Stage(name, processor, executor);
+        final Stage[] stages = new Stage[mStages.length + 1];
+        System.arraycopy(mStages, 0, stages, 0, mStages.length);
+        stages[mStages.length] = stage;
+        mStages = stages;
+        return stage;
+    }
+
+    public synchronized void removeStage(Stage stage) {
+        final Stage[] stages = mStages;
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i] == stage) {
+                final Stage[] remaining = new Stage[stages.length - 1];
+                System.arraycopy(stages, 0, remaining, 0, i);
+                System.arraycopy(stages, i + 1, remaining, i, stages.length - i - 1);
+                mStages = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The conversion, the added stages in order, the output to the renderer and the
+     * recording of the preview frames if there is a recorder
+     */
+    public Stage[] getStages() {
+        final Stage[] stages = mStages;
+        final boolean recording = mRecorder != null;
+        final Stage[] all = new Stage[stages.length + (recording ? 3 : 2)];
+        all[0] = mConvertStage;
+        System.arraycopy(stages, 0, all, 1, stages.length);
+        all[stages.length + 1] = mOutputStage;
+        if (recording) {
+            all[stages.length + 2] = mRecordStage;
+        }
+        return all;
+    }
+
+    /**
+     * Converts a preview frame and passes it through the pipeline. The planes of {@code frame}
+     * are not used anymore once this method returns.
+     */
+    @Override
+    public void onPreviewFrame(CameraFrame frame) {
+        final YuvConverter converter = mConverter;
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final PooledFrame out = mFramePool.acquire(converter.getOutputWidth(width, height),
+                converter.getOutputHeight(width, height), converter.getOutputFormat());
+        if (out == null) {
+            mFrameDropStats.countDropped(FrameDropStats.Stage.FRAME_POOL);
+            mConvertStage.countDropped();
+            record(frame);
+            return;
+        }
+        mFrameDropStats.countPassed(FrameDropStats.Stage.FRAME_POOL);
+        final long start = System.nanoTime();
+        converter.convert(frame, out.getBuffer());
+        out.setTimestamp(frame);
+        mConvertStage.countFrame(System.nanoTime() - start);
+        final FrameLatencyStats latencyStats = mLatencyStats;
+        if (latencyStats != null) {
+            latencyStats.record(FrameLatencyStats.Point.CONVERTED, out.getTimestampNs(),
+                    out.isTimestampRealtime());
+        }
+        process(out);
+        record(frame);
+    }
+
+    /**
+     * Hands a preview frame to the recorder after its converted frame went on to the renderer.
+     */
+    private void record(CameraFrame frame) {
+        final RawFrameRecorder recorder = mRecorder;
+        if (recorder == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        if (recorder.record(frame)) {
+            mRecordStage.countFrame(System.nanoTime() - start);
+        } else {
+            mRecordStage.countDropped();
+        }
+    }
+
+    /**
+     * Passes a frame which needs no conversion through the stages, taking over the caller's
+     * reference to it.
+     */
+    public void process(PooledFrame frame) {
+        final Stage[] stages = mStages;
+        for (int i = 0; i < stages.length && frame != null; i++) {
+            frame = stages[i].run(frame);
+        }
+        if (frame != null) {
+            publish(frame);
+        }
+    }
+
+    /**
+     * Publishes a frame to the render thread and releases the frame coming back, which the
+     * renderer either used or skipped.
+     */
+    private void publish(PooledFrame frame) {
+        final FrameExchange<PooledFrame> output = mOutput;
+        if (output == null) {
+            frame.release();
+            mOutputStage.countDropped();
+            return;
+        }
+        // read before the frame belongs to the exchange
+        final long timestampNs = frame.getTimestampNs();
+        final boolean timestampRealtime = frame.isTimestampRealtime();
+        final long start = System.nanoTime();
+        final long overwritten = output.getOverwrittenCount();
+        final PooledFrame displaced = output.publish(frame);
+        if (output.getOverwrittenCount() != overwritten) {
+            mFrameDropStats.countDropped(FrameDropStats.Stage.RENDER);
+        } else if (displaced != null) {
+            mFrameDropStats.countPassed(FrameDropStats.Stage.RENDER);
+        }
+        if (displaced != null) {
+            displaced.release();
+        }
+        mOutputStage.countFrame(System.nanoTime() - start);
+        final FrameLatencyStats latencyStats = mLatencyStats;
+        if (latencyStats != null) {
+            latencyStats.record(FrameLatencyStats.Point.PUBLISHED, timestampNs, timestampRealtime);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.texture.Image;
+
+import java.util.ArrayList;
+
+/**
+ * Recycles the direct buffers of {@link PooledFrame}s, keyed by their size and format.
+ * <p>
+ * Released frames are kept and handed out again for the next frame of the same size and
+ * format, so the steady state allocates nothing. The direct memory of all frames the pool
+ * created is capped: when a new frame would exceed the cap, free frames of other sizes are
+ * dropped first, and if that is not enough no frame is handed out at all, which the caller has
+ * to treat as a dropped frame.
+ */
+public class FramePool {
+
+    private final long mMaxBytes;
+    private final ArrayList<PooledFrame> mFree = new ArrayList<PooledFrame>();
+    private long mAllocatedBytes;
+    private long mExhaustedCount;
+    // the number of trims so far, frames created before the latest one are not kept anymore
+    private int mGeneration;
+
+    /**
+     * @param maxBytes The maximum direct memory of all frames of the pool, in use or free
+     */
+    public FramePool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Hands out a frame holding one reference for the caller.
+     *
+     * @return The frame, or {@code null} if the memory cap does not allow another one
+     */
+    public synchronized PooledFrame acquire(int width, int height, Image.Format format) {
+        PooledFrame frame = null;
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            if (mFree.get(i).matches(width, height, format)) {
+                frame = mFree.remove(i);
+                break;
+            }
+        }
+        if (frame == null) {
+            final int size = PooledFrame.getSizeInBytes(width, height, format);
+            // make room by dropping free frames of other sizes, the oldest first
+            while (mAllocatedBytes + size > mMaxBytes && !mFree.isEmpty()) {
+                final PooledFrame dropped = mFree.remove(0);
+                mAllocatedBytes -= dropped.getBuffer().capacity();
+            }
+            if (mAllocatedBytes + size > mMaxBytes) {
+                mExhaustedCount++;
+                return null;
+            }
+            frame = new PooledFrame(this, mGeneration, width, height, format);
+            mAllocatedBytes += size;
+        }
+        frame.acquired();
+        return frame;
+    }
+
+    synchronized void recycle(PooledFrame frame) {
+        if (frame.getGeneration() == mGeneration) {
+            mFree.add(frame);
+        } else {
+            mAllocatedBytes -= frame.getBuffer().capacity();
+        }
+    }
+
+    /**
+     * Drops all free frames, and the ones in use once they are released, e.g. after the preview
+     * size changed.
+     */
+    public synchronized void trim() {
+        mGeneration++;
+        for (int i = 0; i < mFree.size(); i++) {
+            mAllocatedBytes -= mFree.get(i).getBuffer().capacity();
+        }
+        mFree.clear();
+    }
+
+    /**
+     * @return The direct memory of all frames of the pool, in use or free
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    /**
+     * @return How often no frame could be handed out because of the memory cap
+     */
+    public synchronized long getExhaustedCount() {
+        return mExhaustedCount;
+    }
+}
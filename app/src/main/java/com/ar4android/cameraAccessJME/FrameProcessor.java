@@ -0,0 +1,26 @@
+package com.ar4android.cameraAccessJME;
+
+/**
+ * A stage of a {@link FramePipeline}, e.g. scaling, statistics, computer vision analysis or
+ * recording.
+ */
+public interface FrameProcessor {
+
+    /**
+     * Processes a frame.
+     * <p>
+     * A stage running on the thread delivering the frames may hand on a different frame than it
+     * got, e.g. a scaled copy it acquired from the pool and gave the timestamp of the original,
+     * or drop the frame by returning
+     * {@code null}. The pipeline keeps its own reference to {@code frame} and releases it if it
+     * is not handed on.
+     * <p>
+     * A stage running on its own executor only observes the frames: it must not write the
+     * pixels and its result is ignored. The frame is released once this method returns, so a
+     * stage using it longer, e.g. a recorder writing it out later, has to
+     * {@link PooledFrame#retain()} it.
+     *
+     * @return The frame to hand on to the next stage, or {@code null} to drop it
+     */
+    PooledFrame process(PooledFrame frame);
+}
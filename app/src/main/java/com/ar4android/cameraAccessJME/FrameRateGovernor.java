@@ -0,0 +1,265 @@
+package com.ar4android.cameraAccessJME;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Chooses the auto exposure target frame rate range of the camera by a {@link FrameRatePolicy}
+ * among the ranges the camera advertises, capped at the frame rate the renderer reaches.
+ * <p>
+ * Every evaluation measures the frames the {@link JmeARapplication} rendered since the previous
+ * one. A range other than the current one is only chosen once it was the choice of
+ * {@link #setStableEvaluations(int)} evaluations in a row, so a single slow frame does not
+ * reconfigure the camera. The ranges are set and the evaluations run on any thread; the
+ * listener is called on the thread of the evaluation.
+ */
+public class FrameRateGovernor {
+
+    private static final String TAG = "FrameRateGovernor";
+
+    public interface Listener {
+        /**
+         * Called when the camera should keep its frame rate to {@code range}.
+         */
+        void onFpsRangeChosen(Range<Integer> range);
+    }
+
+    private final FrameRatePolicy mPolicy;
+    private volatile JmeARapplication mApplication;
+    private volatile Listener mListener;
+
+    private int mMinFps = 15;
+    private float mRenderFpsTolerance = 1.1f;
+    private int mStableEvaluations = 3;
+
+    private Range<Integer>[] mRanges;
+    private Range<Integer> mCurrentRange;
+    // the range the last evaluations chose and how many of them in a row
+    private Range<Integer> mCandidateRange;
+    private int mCandidateCount;
+
+    // the render counters at the previous evaluation
+    private long mLastRenderedFrames;
+    private long mLastEvaluationMs;
+    private float mRenderFps;
+    private long mChangeCount;
+
+    private Timer mTimer;
+
+    public FrameRateGovernor(FrameRatePolicy policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * @param application The application whose frame rate caps the camera's, or {@code null}
+     *                    to not cap it
+     */
+    public void setApplication(JmeARapplication application) {
+        mApplication = application;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param fps The frame rate {@link FrameRatePolicy#POWER_SAVER} keeps to at least
+     */
+    public synchronized void setMinFps(int fps) {
+        mMinFps = fps;
+    }
+
+    /**
+     * @param tolerance The factor the measured render frame rate is multiplied with before it
+     *                  caps the camera's, so a renderer which just misses 30 fps does not drop
+     *                  the camera to a lower range
+     */
+    public synchronized void setRenderFpsTolerance(float tolerance) {
+        mRenderFpsTolerance = tolerance;
+    }
+
+    /**
+     * @param count The number of evaluations in a row which have to choose another range before
+     *              the camera is reconfigured
+     */
+    public synchronized void setStableEvaluations(int count) {
+        mStableEvaluations = Math.max(1, count);
+    }
+
+    /**
+     * Sets the ranges the camera advertises and chooses the initial one, before the renderer
+     * was measured.
+     *
+     * @return The range chosen, or {@code null} if there are none
+     */
+    public synchronized Range<Integer> setAvailableRanges(Range<Integer>[] ranges) {
+        mRanges = ranges != null && ranges.length > 0 ? ranges.clone() : null;
+        mCandidateRange = null;
+        mCandidateCount = 0;
+        mCurrentRange = mRanges != null ? choose(mRanges, mPolicy, Integer.MAX_VALUE, mMinFps) : null;
+        takeCounters();
+        return mCurrentRange;
+    }
+
+    /**
+     * Measures the render frame rate since the previous evaluation and chooses another range if
+     * needed.
+     */
+    public void evaluate() {
+        Range<Integer> chosen = null;
+        float renderFps;
+        synchronized (this) {
+            final JmeARapplication application = mApplication;
+            final long now = SystemClock.uptimeMillis();
+            if (mRanges == null || application == null || now <= mLastEvaluationMs) {
+                return;
+            }
+            final long renderedFrames = application.getRenderedFrameCount();
+            mRenderFps = (renderedFrames - mLastRenderedFrames) * 1000f / (now - mLastEvaluationMs);
+            takeCounters();
+            if (mRenderFps <= 0) {
+                // the renderer is paused, which says nothing about its frame rate
+                return;
+            }
+            final Range<Integer> range = choose(mRanges, mPolicy,
+                    (int) (mRenderFps * mRenderFpsTolerance), mMinFps);
+            if (range.equals(mCurrentRange)) {
+                mCandidateRange = null;
+                mCandidateCount = 0;
+            } else {
+                if (!range.equals(mCandidateRange)) {
+                    mCandidateRange = range;
+                    mCandidateCount = 0;
+                }
+                if (++mCandidateCount >= mStableEvaluations) {
+                    mCurrentRange = range;
+                    mCandidateRange = null;
+                    mCandidateCount = 0;
+                    mChangeCount++;
+                    chosen = range;
+                }
+            }
+            renderFps = mRenderFps;
+        }
+        final Listener listener = mListener;
+        if (chosen != null && listener != null) {
+            Log.i(TAG, "Rendering at " + renderFps + " fps, switching the camera to " + chosen);
+            listener.onFpsRangeChosen(chosen);
+        }
+    }
+
+    /**
+     * Evaluates every {@code intervalMs} on a timer thread of its own.
+     */
+    public synchronized void start(long intervalMs) {
+        stop();
+        takeCounters();
+        mTimer = new Timer("FrameRateGovernor", true);
+        mTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                evaluate();
+            }
+        }, intervalMs, intervalMs);
+    }
+
+    public synchronized void stop() {
+        if (mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+        }
+    }
+
+    /**
+     * @return The range chosen last, or {@code null} before the ranges were set
+     */
+    public synchronized Range<Integer> getCurrentRange() {
+        return mCurrentRange;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mPolicy + " " + mCurrentRange + ", rendering at " + mRenderFps + " fps, "
+                + mChangeCount + " changes";
+    }
+
+    private void takeCounters() {
+        final JmeARapplication application = mApplication;
+        mLastRenderedFrames = application != null ? application.getRenderedFrameCount() : 0;
+        mLastEvaluationMs = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Chooses a range by {@code policy}.
+     *
+     * @param ranges The ranges to choose from
+     * @param maxFps The highest frame rate the camera may deliver; if no range stays below it,
+     *               the one with the lowest maximum is chosen
+     * @param minFps The frame rate {@link FrameRatePolicy#POWER_SAVER} keeps to at least
+     */
+    static Range<Integer> choose(Range<Integer>[] ranges, FrameRatePolicy policy, int maxFps,
+                                 int minFps) {
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() <= maxFps && (best == null || isBetter(range, best, policy, minFps))) {
+                best = range;
+            }
+        }
+        if (best == null) {
+            for (Range<Integer> range : ranges) {
+                if (best == null || range.getUpper() < best.getUpper()
+                        || range.getUpper().equals(best.getUpper()) && range.getLower() < best.getLower()) {
+                    best = range;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Whether {@code range} suits {@code policy} better than {@code best}
+     */
+    private static boolean isBetter(Range<Integer> range, Range<Integer> best,
+                                    FrameRatePolicy policy, int minFps) {
+        final int upper = range.getUpper();
+        final int lower = range.getLower();
+        final int bestUpper = best.getUpper();
+        final int bestLower = best.getLower();
+        switch (policy) {
+            case STEADY_FPS: {
+                // fixed ranges first, then the highest minimum, then the highest maximum
+                final boolean fixed = lower == upper;
+                final boolean bestFixed = bestLower == bestUpper;
+                if (fixed != bestFixed) {
+                    return fixed;
+                }
+                if (lower != bestLower) {
+                    return lower > bestLower;
+                }
+                return upper > bestUpper;
+            }
+            case POWER_SAVER: {
+                // the lowest maximum of at least minFps, then the lowest minimum
+                final boolean enough = upper >= minFps;
+                final boolean bestEnough = bestUpper >= minFps;
+                if (enough != bestEnough) {
+                    return enough;
+                }
+                if (upper != bestUpper) {
+                    return enough ? upper < bestUpper : upper > bestUpper;
+                }
+                return lower < bestLower;
+            }
+            default:
+                // the highest maximum, then the lowest minimum
+                if (upper != bestUpper) {
+                    return upper > bestUpper;
+                }
+                return lower < bestLower;
+        }
+    }
+}
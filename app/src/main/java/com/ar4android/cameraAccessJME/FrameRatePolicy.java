@@ -0,0 +1,27 @@
+package com.ar4android.cameraAccessJME;
+
+/**
+ * Which of the frame rate ranges the camera advertises its auto exposure is asked to keep to.
+ * Whatever the policy, the rate is capped at the frame rate the renderer reaches, as frames it
+ * cannot show would only be dropped.
+ */
+public enum FrameRatePolicy {
+
+    /**
+     * The range with the highest frame rate, and among those the lowest minimum, which lets the
+     * auto exposure lower the frame rate in low light instead of underexposing.
+     */
+    MAX_FPS,
+
+    /**
+     * A fixed frame rate, the highest the camera offers, so the motion in the background stays
+     * even. Frames get darker or noisier in low light instead.
+     */
+    STEADY_FPS,
+
+    /**
+     * The lowest frame rate which still keeps to a given minimum, which saves the power of the
+     * sensor, the conversion and the uploads.
+     */
+    POWER_SAVER
+}
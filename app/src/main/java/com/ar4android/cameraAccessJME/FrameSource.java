@@ -0,0 +1,20 @@
+package com.ar4android.cameraAccessJME;
+
+/**
+ * Delivers preview frames, e.g. a camera, a recording being replayed or a synthetic pattern,
+ * so that a {@link FramePipeline} and the {@link VideoBackgroundAppState} behind it do not
+ * depend on where the frames come from.
+ */
+public interface FrameSource {
+    /**
+     * Starts delivering frames. {@code sizeCallback} is called before the first frame of every
+     * size; both callbacks are called on a thread of the source.
+     */
+    void start(CameraWrapper.PreviewCallback frameCallback,
+               CameraWrapper.PreviewSizeCallback sizeCallback);
+
+    /**
+     * Stops delivering frames; no callback is called once this returned.
+     */
+    void stop();
+}
@@ -3,13 +3,149 @@ package com.ar4android.cameraAccessJME;
 import android.location.Location;
 
 import com.jme3.app.SimpleApplication;
+import com.jme3.math.Quaternion;
 import com.jme3.texture.Image;
 
 /**
  * Created by norto02 on 2/19/2016.
  */
 public abstract class JmeARapplication extends SimpleApplication {
-    abstract void setTexture(final Image image);
+
+    // how long without a frame on the realtime time base until the latest orientation is applied
+    private static final long FRAME_ORIENTATION_TIMEOUT_NS = 200000000L;
+
+    private final VideoBackgroundAppState mVideoBackground = new VideoBackgroundAppState();
+    private volatile OrientationHistory mOrientationHistory;
+    // the orientation at the exposure of the frame taken last, only accessed by the render thread
+    private final Quaternion mFrameOrientation = new Quaternion();
+    private final float[] mFrameAngles = new float[3];
+    // when the orientation of a frame was applied last on the System.nanoTime() clock, only
+    // accessed by the render thread
+    private long mFrameOrientationAppliedNs;
+    // the frames rendered and the time their updates took, only written by the render thread
+    private volatile long mRenderedFrameCount;
+    private volatile long mRenderNanos;
+
+    public JmeARapplication() {
+        mVideoBackground.setFrameListener(new VideoBackgroundAppState.FrameListener() {
+            @Override
+            public void onFrame(long timestampNs, boolean timestampRealtime, long frameNumber) {
+                final OrientationHistory history = mOrientationHistory;
+                if (history != null && timestampRealtime
+                        && history.getOrientation(timestampNs, mFrameOrientation)) {
+                    mFrameOrientation.toAngles(mFrameAngles);
+                    setRotation(mFrameAngles[0], mFrameAngles[1], mFrameAngles[2]);
+                    mFrameOrientationAppliedNs = System.nanoTime();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The state showing the camera frames as the video background, attached once the
+     * application is initialized
+     */
+    public VideoBackgroundAppState getVideoBackground() {
+        return mVideoBackground;
+    }
+
+    /**
+     * Connects the application to the frames published by the camera thread, see
+     * {@link VideoBackgroundAppState#setCameraFrames(FrameExchange, Image)}.
+     */
+    public void setCameraFrames(FrameExchange<PooledFrame> exchange, Image image) {
+        mVideoBackground.setCameraFrames(exchange, image);
+    }
+
+    /**
+     * @param stats Records when the camera frames were uploaded and rendered, or {@code null}
+     *              to record nothing
+     */
+    public void setFrameLatencyStats(FrameLatencyStats stats) {
+        mVideoBackground.setFrameLatencyStats(stats);
+    }
+
+    /**
+     * Pairs every camera frame with the orientation at its exposure instead of the latest one.
+     *
+     * @param history The orientations, as quaternions of the angles passed to
+     *                {@link #setRotation(float, float, float)}. Each frame taken for the video
+     *                background passes its orientation to
+     *                {@link #setRotation(float, float, float)} on the render thread. While no
+     *                frame with a timestamp on the same time base arrives, e.g. before the
+     *                first one or if the camera does not report such timestamps, the latest
+     *                orientation is passed instead. {@code null} leaves the rotation to whoever
+     *                calls it.
+     */
+    public void setOrientationHistory(OrientationHistory history) {
+        mOrientationHistory = history;
+    }
+
+    /**
+     * @param doubleBuffered Whether the camera frames are uploaded into two textures taking
+     *                       turns, see {@link StreamingTexture#setDoubleBuffered(boolean)}
+     */
+    public void setDoubleBufferedUpload(boolean doubleBuffered) {
+        mVideoBackground.setDoubleBufferedUpload(doubleBuffered);
+    }
+
+    /**
+     * Draws the video background and the 3D scene in the main viewport, see
+     * {@link BackgroundCompositor}, instead of in viewports of their own. Must be set before
+     * {@link #simpleInitApp()} runs.
+     */
+    public void setSinglePassCompositing(boolean singlePass) {
+        mVideoBackground.setSinglePassCompositing(singlePass);
+    }
+
+    protected boolean isSinglePassCompositing() {
+        return mVideoBackground.isSinglePassCompositing();
+    }
+
+    /**
+     * Shows a single image as the next camera frame, for producers which manage their own
+     * image instead of publishing through a {@link FrameExchange}.
+     */
+    void setTexture(final Image image) {
+        mVideoBackground.setImage(image);
+    }
+
+    /**
+     * @return The number of frames rendered
+     */
+    public long getRenderedFrameCount() {
+        return mRenderedFrameCount;
+    }
+
+    /**
+     * @return The total time the updates of the rendered frames took, in nanoseconds, without
+     * waiting for the display
+     */
+    public long getRenderNanos() {
+        return mRenderNanos;
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        // the subclasses only set up their foreground, the background comes with the state
+        stateManager.attach(mVideoBackground);
+    }
+
+    @Override
+    public void update() {
+        final long start = System.nanoTime();
+        final OrientationHistory history = mOrientationHistory;
+        if (history != null && start - mFrameOrientationAppliedNs > FRAME_ORIENTATION_TIMEOUT_NS
+                && history.getOrientation(Long.MAX_VALUE, mFrameOrientation)) {
+            mFrameOrientation.toAngles(mFrameAngles);
+            setRotation(mFrameAngles[0], mFrameAngles[1], mFrameAngles[2]);
+        }
+        super.update();
+        mRenderNanos += System.nanoTime() - start;
+        mRenderedFrameCount++;
+    }
+
     void setUserLocation(Location location) {};
     public void setRotation(float pitch, float roll, float heading){};
 }
@@ -0,0 +1,113 @@
+package com.ar4android.cameraAccessJME;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with fixed, equally wide buckets.
+ * <p>
+ * Recording a value is a division and an atomic increment, with no allocation and no lock, so
+ * histograms can stay enabled in production builds. Values beyond the last bucket are counted
+ * in an overflow bucket. Percentiles are accurate to one bucket width.
+ */
+public class LatencyHistogram {
+
+    private final long mBucketNanos;
+    // the last element is the overflow bucket
+    private final AtomicLongArray mCounts;
+    private final AtomicLongArray mTotals = new AtomicLongArray(2);
+
+    private static final int COUNT = 0;
+    private static final int MAX = 1;
+
+    /**
+     * @param bucketNanos The width of a bucket in nanoseconds
+     * @param bucketCount The number of buckets, covering 0 to {@code bucketNanos * bucketCount}
+     */
+    public LatencyHistogram(long bucketNanos, int bucketCount) {
+        mBucketNanos = bucketNanos;
+        mCounts = new AtomicLongArray(bucketCount + 1);
+    }
+
+    /**
+     * Records a latency. Negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        final long bucket = nanos / mBucketNanos;
+        final int overflow = mCounts.length() - 1;
+        mCounts.incrementAndGet(bucket < overflow ? (int) bucket : overflow);
+        mTotals.incrementAndGet(COUNT);
+        long max;
+        while (nanos > (max = mTotals.get(MAX))) {
+            if (mTotals.compareAndSet(MAX, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return The number of latencies recorded
+     */
+    public long getCount() {
+        return mTotals.get(COUNT);
+    }
+
+    /**
+     * @return The highest latency recorded, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return mTotals.get(MAX);
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound of the bucket containing the percentile in nanoseconds, the
+     * maximum if it lies in the overflow bucket, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        final int overflow = mCounts.length() - 1;
+        long seen = 0;
+        for (int i = 0; i < overflow; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min((i + 1) * mBucketNanos, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Forgets all latencies recorded so far. Latencies recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mTotals.set(COUNT, 0);
+        mTotals.set(MAX, 0);
+    }
+
+    /**
+     * @return The count and the 50th, 95th and 99th percentile and maximum in milliseconds
+     */
+    @Override
+    public String toString() {
+        return "n=" + getCount()
+                + " p50=" + formatMillis(getPercentileNanos(50))
+                + " p95=" + formatMillis(getPercentileNanos(95))
+                + " p99=" + formatMillis(getPercentileNanos(99))
+                + " max=" + formatMillis(getMaxNanos());
+    }
+
+    private static String formatMillis(long nanos) {
+        final long tenths = (nanos + 50000) / 100000;
+        return tenths / 10 + "." + tenths % 10 + "ms";
+    }
+}
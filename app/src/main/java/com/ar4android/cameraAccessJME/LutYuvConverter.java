@@ -0,0 +1,201 @@
+package com.ar4android.cameraAccessJME;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts a YUV 4:2:0 {@link CameraFrame} into RGB pixels using lookup tables.
+ * <p>
+ * The luminance and the chroma contributions of every possible sample value are precomputed
+ * for the selected {@link YuvColorMatrix}, as are saturating tables which clamp a channel to
+ * 0..255 and, for RGB565, shift it straight into its bit position. Per pixel pair this leaves
+ * four table reads for the chroma, and per pixel four table reads, two ORs and no branches.
+ * The results are bit-identical to {@link FixedPointYuvConverter}.
+ */
+public class LutYuvConverter extends AbstractYuvConverter {
+
+    /**
+     * Offset added to a channel value before it is used as an index into the clamp tables. The
+     * tables cover -CLAMP_OFFSET..CLAMP_OFFSET-1, which is wider than the stretched luminance of
+     * limited range frames plus any chroma contribution can get.
+     */
+    private static final int CLAMP_OFFSET = 1024;
+
+    private static final int[] CLAMP = new int[2 * CLAMP_OFFSET];
+    private static final short[] R_565 = new short[2 * CLAMP_OFFSET];
+    private static final short[] G_565 = new short[2 * CLAMP_OFFSET];
+    private static final short[] B_565 = new short[2 * CLAMP_OFFSET];
+
+    static {
+        for (int i = 0; i < 2 * CLAMP_OFFSET; i++) {
+            final int v = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+            CLAMP[i] = v;
+            R_565[i] = (short) ((v & 0xf8) << 8);
+            G_565[i] = (short) ((v & 0xfc) << 3);
+            B_565[i] = (short) (v >> 3);
+        }
+    }
+
+    // the tables of the selected colour matrix
+    private final int[] mLum = new int[256];
+    private final int[] mRCr = new int[256];
+    private final int[] mGCb = new int[256];
+    private final int[] mGCr = new int[256];
+    private final int[] mBCb = new int[256];
+
+    public LutYuvConverter() {
+        buildTables();
+    }
+
+    @Override
+    public void setColorMatrix(YuvColorMatrix colorMatrix) {
+        super.setColorMatrix(colorMatrix);
+        buildTables();
+    }
+
+    private void buildTables() {
+        final YuvColorMatrix matrix = getColorMatrix();
+        for (int i = 0; i < 256; i++) {
+            // the luminance is already biased into the clamp table range
+            mLum[i] = CLAMP_OFFSET + ((matrix.yScaleFixed * (i - matrix.yOffsetFixed) + 128) >> 8);
+            final int c = i - 128;
+            mRCr[i] = (matrix.crToRFixed * c) >> 8;
+            mBCb[i] = (matrix.cbToBFixed * c) >> 8;
+            // the green contributions are summed before the shift, like the fixed-point kernel
+            mGCb[i] = matrix.cbToGFixed * c;
+            mGCr[i] = matrix.crToGFixed * c;
+        }
+    }
+
+    @Override
+    public void convertRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        if (getDownscale() != 1) {
+            convertScaledRows(frame, out, startRow, endRow);
+            return;
+        }
+        switch (getOutputFormat()) {
+            case Luminance8:
+                convertLuminanceRows(frame, out, startRow, endRow);
+                break;
+            case RGB565:
+                convertRgb565Rows(frame, out, startRow, endRow);
+                break;
+            default:
+                convertRgbRows(frame, out, startRow, endRow);
+                break;
+        }
+    }
+
+    @Override
+    protected int toRgb(int Y, int Cb, int Cr) {
+        final int[] clamp = CLAMP;
+        final int lum = mLum[Y];
+        return (clamp[lum + mRCr[Cr]] << 16)
+                | (clamp[lum - ((mGCb[Cb] + mGCr[Cr]) >> 8)] << 8)
+                | clamp[lum + mBCb[Cb]];
+    }
+
+    private void convertRgb565Rows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yOffset = frame.getYOffset();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+
+        final int[] lum = mLum;
+        final int[] rCr = mRCr;
+        final int[] gCb = mGCb;
+        final int[] gCr = mGCr;
+        final int[] bCb = mBCb;
+        final short[] r565 = R_565;
+        final short[] g565 = G_565;
+        final short[] b565 = B_565;
+
+        final int columnStep = getColumnStep(width, height) * 2;
+        final int rowStep = getRowStep(width, height) * 2;
+        final int firstPtr = getFirstPixel(width, height) * 2;
+
+        for (int row = startRow; row < endRow; row++) {
+            int outPtr = firstPtr + row * rowStep;
+            int yPtr = yOffset + row * yRowStride;
+            int uvPtr = (row >> 1) * uvRowStride;
+            for (int col = 0; col < width; col += 2) {
+                final int cr = vBuf.get(vOffset + uvPtr) & 0xff;
+                final int cb = uBuf.get(uOffset + uvPtr) & 0xff;
+                uvPtr += uvPixelStride;
+
+                // the chroma contributions
+                final int rOffset = rCr[cr];
+                final int gOffset = -((gCb[cb] + gCr[cr]) >> 8);
+                final int bOffset = bCb[cb];
+
+                final int Y1 = lum[yBuf.get(yPtr) & 0xff];
+                final int Y2 = lum[yBuf.get(yPtr + 1) & 0xff];
+                yPtr += 2;
+
+                out.putShort(outPtr, (short) (r565[Y1 + rOffset] | g565[Y1 + gOffset] | b565[Y1 + bOffset]));
+                out.putShort(outPtr + columnStep, (short) (r565[Y2 + rOffset] | g565[Y2 + gOffset] | b565[Y2 + bOffset]));
+                outPtr += 2 * columnStep;
+            }
+        }
+    }
+
+    /**
+     * Converts rows into {@link com.jme3.texture.Image.Format#RGB8} or
+     * {@link com.jme3.texture.Image.Format#RGBA8}.
+     */
+    private void convertRgbRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        final ByteBuffer yBuf = frame.getYBuffer();
+        final ByteBuffer uBuf = frame.getUBuffer();
+        final ByteBuffer vBuf = frame.getVBuffer();
+        final int yOffset = frame.getYOffset();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        final int yRowStride = frame.getYRowStride();
+        final int uvRowStride = frame.getUvRowStride();
+        final int uvPixelStride = frame.getUvPixelStride();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int bytesPerPixel = getBytesPerPixel();
+        final boolean alpha = bytesPerPixel == 4;
+
+        final int[] lum = mLum;
+        final int[] rCr = mRCr;
+        final int[] gCb = mGCb;
+        final int[] gCr = mGCr;
+        final int[] bCb = mBCb;
+        final int[] clamp = CLAMP;
+
+        final int columnStep = getColumnStep(width, height) * bytesPerPixel;
+        final int rowStep = getRowStep(width, height) * bytesPerPixel;
+        final int firstPtr = getFirstPixel(width, height) * bytesPerPixel;
+
+        for (int row = startRow; row < endRow; row++) {
+            int outPtr = firstPtr + row * rowStep;
+            int yPtr = yOffset + row * yRowStride;
+            int uvPtr = (row >> 1) * uvRowStride;
+            for (int col = 0; col < width; col += 2) {
+                final int cr = vBuf.get(vOffset + uvPtr) & 0xff;
+                final int cb = uBuf.get(uOffset + uvPtr) & 0xff;
+                uvPtr += uvPixelStride;
+
+                final int rOffset = rCr[cr];
+                final int gOffset = -((gCb[cb] + gCr[cr]) >> 8);
+                final int bOffset = bCb[cb];
+
+                final int Y1 = lum[yBuf.get(yPtr) & 0xff];
+                final int Y2 = lum[yBuf.get(yPtr + 1) & 0xff];
+                yPtr += 2;
+
+                putRgb(out, outPtr, clamp[Y1 + rOffset], clamp[Y1 + gOffset], clamp[Y1 + bOffset], alpha);
+                putRgb(out, outPtr + columnStep, clamp[Y2 + rOffset], clamp[Y2 + gOffset], clamp[Y2 + bOffset], alpha);
+                outPtr += 2 * columnStep;
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.math.Quaternion;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A ring buffer of the latest timestamped orientations, which interpolates the orientation at
+ * any moment in between, e.g. the exposure time of a camera frame.
+ * <p>
+ * One thread adds samples, any number of threads may look orientations up concurrently.
+ * Neither allocates. Every slot is guarded by a sequence number which is cleared while the slot
+ * is written, so a reader detects a sample overwritten under it and retries.
+ */
+public class OrientationHistory {
+
+    // the longs of a slot: the number of the sample, -1 while it is written, the timestamp and
+    // the raw bits of the quaternion components
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int XY = 2;
+    private static final int ZW = 3;
+    private static final int SLOT_SIZE = 4;
+
+    private static final int MAX_RETRIES = 4;
+
+    private final int mCapacity;
+    private final AtomicLongArray mSlots;
+    // the number of samples added so far, only written by the writer
+    private volatile long mCount;
+
+    /**
+     * @param capacity The number of samples kept, which should cover the age of the oldest
+     *                 frame which is looked up at the rate samples are added
+     */
+    public OrientationHistory(int capacity) {
+        mCapacity = capacity;
+        mSlots = new AtomicLongArray(capacity * SLOT_SIZE);
+        for (int i = 0; i < capacity; i++) {
+            mSlots.set(i * SLOT_SIZE + SEQUENCE, -1);
+        }
+    }
+
+    /**
+     * Adds the latest orientation. Timestamps must not decrease. Only one thread may add samples.
+     */
+    public void add(long timestampNs, Quaternion orientation) {
+        add(timestampNs, orientation.getX(), orientation.getY(), orientation.getZ(), orientation.getW());
+    }
+
+    public void add(long timestampNs, float x, float y, float z, float w) {
+        final long sample = mCount;
+        final int slot = (int) (sample % mCapacity) * SLOT_SIZE;
+        mSlots.set(slot + SEQUENCE, -1);
+        mSlots.set(slot + TIMESTAMP, timestampNs);
+        mSlots.set(slot + XY, pack(x, y));
+        mSlots.set(slot + ZW, pack(z, w));
+        mSlots.set(slot + SEQUENCE, sample);
+        mCount = sample + 1;
+    }
+
+    /**
+     * @return The number of samples added so far
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Looks up the orientation at {@code timestampNs}, spherically interpolated between the
+     * samples before and after it. Timestamps after the latest sample get the latest
+     * orientation, timestamps before the oldest sample kept get the oldest one.
+     *
+     * @param out Receives the orientation
+     * @return Whether an orientation was found; {@code false} if no sample was added yet
+     */
+    public boolean getOrientation(long timestampNs, Quaternion out) {
+        for (int retry = 0; retry < MAX_RETRIES; retry++) {
+            if (tryGetOrientation(timestampNs, out)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tryGetOrientation(long timestampNs, Quaternion out) {
+        final long count = mCount;
+        if (count == 0) {
+            return false;
+        }
+        final long oldest = Math.max(0, count - mCapacity + 1);
+        // walk back from the latest sample to the first one not after the timestamp
+        long after = -1;
+        long sample = count - 1;
+        long sampleTime = 0;
+        while (true) {
+            final int slot = (int) (sample % mCapacity) * SLOT_SIZE;
+            sampleTime = mSlots.get(slot + TIMESTAMP);
+            if (mSlots.get(slot + SEQUENCE) != sample) {
+                return false;
+            }
+            if (sampleTime <= timestampNs || sample == oldest) {
+                break;
+            }
+            after = sample;
+            sample--;
+        }
+        if (after < 0 || sampleTime > timestampNs) {
+            // beyond the samples kept, use the closest one
+            return read(sample, out);
+        }
+        final int afterSlot = (int) (after % mCapacity) * SLOT_SIZE;
+        final long afterTime = mSlots.get(afterSlot + TIMESTAMP);
+        final float t = afterTime > sampleTime
+                ? (float) ((double) (timestampNs - sampleTime) / (afterTime - sampleTime)) : 0;
+        return read(sample, out) && slerpTowards(after, out, t);
+    }
+
+    /**
+     * Reads a sample into {@code out}.
+     *
+     * @return Whether the sample was still intact
+     */
+    private boolean read(long sample, Quaternion out) {
+        final int slot = (int) (sample % mCapacity) * SLOT_SIZE;
+        final long xy = mSlots.get(slot + XY);
+        final long zw = mSlots.get(slot + ZW);
+        if (mSlots.get(slot + SEQUENCE) != sample) {
+            return false;
+        }
+        out.set(high(xy), low(xy), high(zw), low(zw));
+        return true;
+    }
+
+    /**
+     * Interpolates {@code out} towards a sample.
+     *
+     * @return Whether the sample was still intact
+     */
+    private boolean slerpTowards(long sample, Quaternion out, float t) {
+        final int slot = (int) (sample % mCapacity) * SLOT_SIZE;
+        final long xy = mSlots.get(slot + XY);
+        final long zw = mSlots.get(slot + ZW);
+        if (mSlots.get(slot + SEQUENCE) != sample) {
+            return false;
+        }
+        float x = high(xy);
+        float y = low(xy);
+        float z = high(zw);
+        float w = low(zw);
+        float cos = out.getX() * x + out.getY() * y + out.getZ() * z + out.getW() * w;
+        // take the shorter way around
+        if (cos < 0) {
+            x = -x;
+            y = -y;
+            z = -z;
+            w = -w;
+            cos = -cos;
+        }
+        float scale0 = 1 - t;
+        float scale1 = t;
+        // fall back to linear interpolation for nearly equal orientations
+        if (1 - cos > 0.001f) {
+            final float theta = (float) Math.acos(cos);
+            final float invSinTheta = 1f / (float) Math.sin(theta);
+            scale0 = (float) Math.sin((1 - t) * theta) * invSinTheta;
+            scale1 = (float) Math.sin(t * theta) * invSinTheta;
+        }
+        out.set(scale0 * out.getX() + scale1 * x, scale0 * out.getY() + scale1 * y,
+                scale0 * out.getZ() + scale1 * z, scale0 * out.getW() + scale1 * w);
+        out.normalizeLocal();
+        return true;
+    }
+
+    private static long pack(float high, float low) {
+        return ((long) Float.floatToRawIntBits(high) << 32) | (Float.floatToRawIntBits(low) & 0xffffffffL);
+    }
+
+    private static float high(long bits) {
+        return Float.intBitsToFloat((int) (bits >>> 32));
+    }
+
+    private static float low(long bits) {
+        return Float.intBitsToFloat((int) bits);
+    }
+}
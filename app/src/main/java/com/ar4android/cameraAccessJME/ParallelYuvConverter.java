@@ -0,0 +1,198 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.texture.Image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs another {@link YuvConverter} on several cores at once.
+ * <p>
+ * Every frame is split into bands of whole chroma rows of the source, several bands per thread. The worker
+ * threads are created and started up front and then claim bands from a shared counter until
+ * none are left, with the calling thread helping out. A core which is throttled or busy with
+ * something else therefore simply ends up converting fewer bands instead of holding up the
+ * whole frame. No objects are allocated per frame.
+ * <p>
+ * Frames are converted one at a time; concurrent callers are serialised.
+ */
+public class ParallelYuvConverter implements YuvConverter {
+
+    /**
+     * How many bands every participating thread gets on average. More bands balance the load
+     * better when cores run at different speeds, fewer bands reduce the claiming overhead.
+     */
+    private static final int BANDS_PER_THREAD = 4;
+
+    private final YuvConverter mKernel;
+    private final Thread[] mWorkers;
+
+    /**
+     * Released once per worker to start converting the current frame.
+     */
+    private final Semaphore mStart = new Semaphore(0);
+    /**
+     * Released by every worker once it could not claim any further band.
+     */
+    private final Semaphore mDone = new Semaphore(0);
+    private final AtomicInteger mNextBand = new AtomicInteger();
+    private volatile boolean mShutdown;
+
+    // The frame currently being converted. Written by the calling thread before mStart is
+    // released, which makes them visible to the workers.
+    private CameraFrame mFrame;
+    private ByteBuffer mOut;
+    private int mStartRow;
+    private int mEndRow;
+    private int mBandRows;
+    private int mBandCount;
+    private volatile RuntimeException mWorkerFailure;
+
+    /**
+     * Creates an engine using one worker less than there are cores, as the thread delivering
+     * the frames takes part in the conversion as well.
+     *
+     * @param kernel The kernel converting the individual bands
+     */
+    public ParallelYuvConverter(YuvConverter kernel) {
+        this(kernel, Runtime.getRuntime().availableProcessors() - 1, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * @param kernel         The kernel converting the individual bands
+     * @param workerCount    The number of worker threads to start, 0 converts on the calling
+     *                       thread only
+     * @param workerPriority The {@link Thread} priority of the workers
+     */
+    public ParallelYuvConverter(YuvConverter kernel, int workerCount, int workerPriority) {
+        mKernel = kernel;
+        mWorkers = new Thread[Math.max(0, workerCount)];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, "YuvConverter-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].setPriority(workerPriority);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * @return The number of worker threads, not counting the calling thread
+     */
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    @Override
+    public Image.Format getOutputFormat() {
+        return mKernel.getOutputFormat();
+    }
+
+    @Override
+    public int getRowCount(int frameWidth, int frameHeight) {
+        return mKernel.getRowCount(frameWidth, frameHeight);
+    }
+
+    @Override
+    public int getOutputWidth(int frameWidth, int frameHeight) {
+        return mKernel.getOutputWidth(frameWidth, frameHeight);
+    }
+
+    @Override
+    public int getOutputHeight(int frameWidth, int frameHeight) {
+        return mKernel.getOutputHeight(frameWidth, frameHeight);
+    }
+
+    @Override
+    public void convert(CameraFrame frame, ByteBuffer out) {
+        convertRows(frame, out, 0, getRowCount(frame.getWidth(), frame.getHeight()));
+    }
+
+    @Override
+    public synchronized void convertRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        // set the byte order once here, the workers must not touch it concurrently
+        out.order(ByteOrder.LITTLE_ENDIAN);
+
+        final int rows = endRow - startRow;
+        final int threads = mWorkers.length + 1;
+        // bands are a multiple of two rows high so they never split a chroma row
+        int bandRows = (rows / (threads * BANDS_PER_THREAD) + 1) & ~1;
+        if (bandRows < 2) {
+            bandRows = 2;
+        }
+        final int bandCount = (rows + bandRows - 1) / bandRows;
+
+        if (mWorkers.length == 0 || bandCount < 2 || mShutdown) {
+            mKernel.convertRows(frame, out, startRow, endRow);
+            return;
+        }
+
+        mFrame = frame;
+        mOut = out;
+        mStartRow = startRow;
+        mEndRow = endRow;
+        mBandRows = bandRows;
+        mBandCount = bandCount;
+        mNextBand.set(0);
+        mStart.release(mWorkers.length);
+
+        try {
+            convertBands();
+        } finally {
+            mDone.acquireUninterruptibly(mWorkers.length);
+            mFrame = null;
+            mOut = null;
+        }
+
+        RuntimeException failure = mWorkerFailure;
+        if (failure != null) {
+            mWorkerFailure = null;
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the worker threads once the frame currently being converted is done. Frames
+     * converted afterwards are processed on the calling thread.
+     */
+    public synchronized void shutdown() {
+        if (!mShutdown) {
+            mShutdown = true;
+            mStart.release(mWorkers.length);
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            mStart.acquireUninterruptibly();
+            if (mShutdown) {
+                return;
+            }
+            try {
+                convertBands();
+            } catch (RuntimeException e) {
+                mWorkerFailure = e;
+            } finally {
+                mDone.release();
+            }
+        }
+    }
+
+    /**
+     * Claims and converts bands of the current frame until all of them are taken.
+     */
+    private void convertBands() {
+        int band;
+        while ((band = mNextBand.getAndIncrement()) < mBandCount) {
+            final int bandStart = mStartRow + band * mBandRows;
+            final int bandEnd = Math.min(bandStart + mBandRows, mEndRow);
+            mKernel.convertRows(mFrame, mOut, bandStart, bandEnd);
+        }
+    }
+}
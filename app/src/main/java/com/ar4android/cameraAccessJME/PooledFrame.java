@@ -0,0 +1,140 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.texture.Image;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A converted frame in a direct buffer owned by a {@link FramePool}.
+ * <p>
+ * Frames are reference-counted so several consumers, e.g. the renderer, a recorder and analysis
+ * stages, can use the same pixels at once without copying them. Whoever gets a frame from
+ * {@link FramePool#acquire} holds the first reference; every further user calls
+ * {@link #retain()} and each reference is given up with {@link #release()}. Once the last one
+ * is released the frame goes back to its pool and must not be touched anymore.
+ */
+public class PooledFrame {
+
+    private final FramePool mPool;
+    private final ByteBuffer mBuffer;
+    private final int mWidth;
+    private final int mHeight;
+    private final Image.Format mFormat;
+    // the number of times the pool was trimmed before the frame was created
+    private final int mGeneration;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private long mTimestampNs;
+    private boolean mTimestampRealtime;
+    private long mFrameNumber;
+
+    PooledFrame(FramePool pool, int generation, int width, int height, Image.Format format) {
+        mPool = pool;
+        mGeneration = generation;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mBuffer = ByteBuffer.allocateDirect(getSizeInBytes(width, height, format));
+    }
+
+    static int getSizeInBytes(int width, int height, Image.Format format) {
+        return width * height * format.getBitsPerPixel() / 8;
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Called by the pool when it hands the frame out.
+     */
+    void acquired() {
+        mRefCount.set(1);
+    }
+
+    /**
+     * Adds a reference to the frame.
+     *
+     * @return This frame
+     */
+    public PooledFrame retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame retained after it was released");
+        }
+        return this;
+    }
+
+    /**
+     * Gives up a reference, returning the frame to its pool with the last one.
+     */
+    public void release() {
+        final int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame released more often than retained");
+        }
+    }
+
+    /**
+     * @return The pixels. Holders of a reference may read them; only the holder of the sole
+     * reference may write them.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Image.Format getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Takes over when the camera frame the pixels were converted from was taken. Only the
+     * holder of the sole reference may call this.
+     */
+    public void setTimestamp(CameraFrame frame) {
+        setTimestamp(frame.getTimestampNs(), frame.isTimestampRealtime(), frame.getFrameNumber());
+    }
+
+    /**
+     * @see CameraFrame#setTimestamp(long, boolean, long)
+     */
+    public void setTimestamp(long timestampNs, boolean timestampRealtime, long frameNumber) {
+        mTimestampNs = timestampNs;
+        mTimestampRealtime = timestampRealtime;
+        mFrameNumber = frameNumber;
+    }
+
+    /**
+     * @see CameraFrame#getTimestampNs()
+     */
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    /**
+     * @see CameraFrame#isTimestampRealtime()
+     */
+    public boolean isTimestampRealtime() {
+        return mTimestampRealtime;
+    }
+
+    /**
+     * @see CameraFrame#getFrameNumber()
+     */
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    boolean matches(int width, int height, Image.Format format) {
+        return mWidth == width && mHeight == height && mFormat == format;
+    }
+}
@@ -0,0 +1,292 @@
+package com.ar4android.cameraAccessJME;
+
+import android.util.Log;
+import android.util.Size;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Steps the preview stream resolution up and down among the supported sizes so that the work
+ * per frame fits a frame budget.
+ * <p>
+ * Every evaluation compares the time the inline stages of a {@link FramePipeline} took per frame
+ * and the time the renderer took per frame since the previous evaluation against the budget.
+ * The next smaller size is chosen once the load was over the budget for
+ * {@link #setStepDownAfter(int)} evaluations in a row, the next larger size once it is expected
+ * to stay below {@link #setStepUpBelow(float)} of the budget at that size for
+ * {@link #setStepUpAfter(int)} evaluations in a row. Stepping up takes longer than stepping
+ * down, so a device which is throttled degrades quickly but does not oscillate between sizes.
+ * <p>
+ * The sizes are set and the evaluations run on any thread; the listener is called on the thread
+ * of the evaluation.
+ */
+public class PreviewResolutionController {
+
+    private static final String TAG = "PreviewResolution";
+
+    public interface Listener {
+        /**
+         * Called when the preview stream should be reconfigured to {@code size}.
+         */
+        void onPreviewSizeChosen(Size size);
+    }
+
+    private final FramePipeline mFramePipeline;
+    private final long mFrameBudgetNanos;
+    private volatile JmeARapplication mApplication;
+    private volatile Listener mListener;
+
+    private int mStepDownAfter = 2;
+    private int mStepUpAfter = 5;
+    private float mStepUpBelow = 0.7f;
+    private int mMinFrames = 10;
+    private int mMaxChosenWait = 5;
+
+    // the sizes to choose from, smallest first, and the one streamed
+    private Size[] mSizes = new Size[0];
+    private int mSizeIndex = -1;
+    // the index chosen last, until the stream reports it, and the evaluations since
+    private int mChosenIndex = -1;
+    private int mChosenWaitCount;
+
+    // the counters at the previous evaluation
+    private long mLastProcessedFrames;
+    private long mLastProcessingNanos;
+    private long mLastRenderedFrames;
+    private long mLastRenderNanos;
+    private int mOverBudgetCount;
+    private int mUnderBudgetCount;
+    private float mLoad;
+    private long mStepCount;
+
+    private Timer mTimer;
+
+    /**
+     * @param framePipeline    The pipeline whose inline stages are measured
+     * @param frameBudgetNanos The time a frame may take, e.g. the frame interval of the camera
+     */
+    public PreviewResolutionController(FramePipeline framePipeline, long frameBudgetNanos) {
+        mFramePipeline = framePipeline;
+        mFrameBudgetNanos = frameBudgetNanos;
+    }
+
+    /**
+     * @param application The application whose render times are measured as well, or
+     *                    {@code null} to only measure the pipeline
+     */
+    public void setApplication(JmeARapplication application) {
+        mApplication = application;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param count The number of evaluations in a row over the budget before a smaller size is
+     *              chosen
+     */
+    public synchronized void setStepDownAfter(int count) {
+        mStepDownAfter = Math.max(1, count);
+    }
+
+    /**
+     * @param count The number of evaluations in a row with room for a larger size before it is
+     *              chosen
+     */
+    public synchronized void setStepUpAfter(int count) {
+        mStepUpAfter = Math.max(1, count);
+    }
+
+    /**
+     * @param fraction The fraction of the budget the load, scaled by the area of the next larger
+     *                 size, has to stay below before that size is chosen
+     */
+    public synchronized void setStepUpBelow(float fraction) {
+        mStepUpBelow = fraction;
+    }
+
+    /**
+     * @param frames The number of frames an evaluation needs to decide anything, fewer are
+     *               carried over to the next evaluation
+     */
+    public synchronized void setMinFrames(int frames) {
+        mMinFrames = Math.max(1, frames);
+    }
+
+    /**
+     * Sets the sizes to choose from and the one streamed now. Called whenever the preview size
+     * changed; the measurements of the previous size are discarded.
+     *
+     * @param sizes   The supported sizes, smallest first
+     * @param current The size streamed now
+     */
+    public synchronized void setSizes(Size[] sizes, Size current) {
+        mSizes = sizes.clone();
+        mSizeIndex = -1;
+        for (int i = 0; i < mSizes.length; i++) {
+            if (mSizes[i].equals(current)) {
+                mSizeIndex = i;
+            }
+        }
+        mChosenIndex = -1;
+        mOverBudgetCount = 0;
+        mUnderBudgetCount = 0;
+        takeCounters();
+    }
+
+    /**
+     * Measures the load since the previous evaluation and chooses another size if needed.
+     */
+    public void evaluate() {
+        Size chosen = null;
+        float load;
+        synchronized (this) {
+            if (mChosenIndex >= 0) {
+                // the stream did not switch, e.g. as a still capture was running
+                if (++mChosenWaitCount < mMaxChosenWait) {
+                    return;
+                }
+                mChosenIndex = -1;
+                takeCounters();
+            }
+            final long processedFrames = getProcessedFrames();
+            final long renderedFrames = getRenderedFrames();
+            if (mSizeIndex < 0 || processedFrames - mLastProcessedFrames < mMinFrames) {
+                return;
+            }
+            final long processingNanos = getProcessingNanos();
+            final long renderNanos = getRenderNanos();
+            long frameNanos = (processingNanos - mLastProcessingNanos)
+                    / (processedFrames - mLastProcessedFrames);
+            if (renderedFrames > mLastRenderedFrames) {
+                frameNanos = Math.max(frameNanos, (renderNanos - mLastRenderNanos)
+                        / (renderedFrames - mLastRenderedFrames));
+            }
+            takeCounters();
+            mLoad = (float) frameNanos / mFrameBudgetNanos;
+            load = mLoad;
+
+            if (mLoad > 1f) {
+                mUnderBudgetCount = 0;
+                if (++mOverBudgetCount >= mStepDownAfter && mSizeIndex > 0) {
+                    chosen = choose(mSizeIndex - 1);
+                }
+            } else if (mSizeIndex < mSizes.length - 1
+                    && mLoad * getArea(mSizes[mSizeIndex + 1]) / getArea(mSizes[mSizeIndex])
+                    < mStepUpBelow) {
+                mOverBudgetCount = 0;
+                if (++mUnderBudgetCount >= mStepUpAfter) {
+                    chosen = choose(mSizeIndex + 1);
+                }
+            } else {
+                mOverBudgetCount = 0;
+                mUnderBudgetCount = 0;
+            }
+        }
+        final Listener listener = mListener;
+        if (chosen != null && listener != null) {
+            Log.i(TAG, "Load " + load + " of the frame budget, switching to " + chosen);
+            listener.onPreviewSizeChosen(chosen);
+        }
+    }
+
+    /**
+     * Evaluates every {@code intervalMs} on a timer thread of its own.
+     */
+    public synchronized void start(long intervalMs) {
+        stop();
+        mTimer = new Timer("PreviewResolution", true);
+        mTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                evaluate();
+            }
+        }, intervalMs, intervalMs);
+    }
+
+    public synchronized void stop() {
+        if (mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+        }
+    }
+
+    /**
+     * @return The size streamed now, or {@code null} before the sizes were set
+     */
+    public synchronized Size getCurrentSize() {
+        return mSizeIndex >= 0 ? mSizes[mSizeIndex] : null;
+    }
+
+    /**
+     * @return The number of times another size was chosen
+     */
+    public synchronized long getStepCount() {
+        return mStepCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size " + getCurrentSize() + ", load " + mLoad + " of "
+                + mFrameBudgetNanos / 1000 + " us, " + mStepCount + " steps";
+    }
+
+    private Size choose(int index) {
+        mChosenIndex = index;
+        mChosenWaitCount = 0;
+        mOverBudgetCount = 0;
+        mUnderBudgetCount = 0;
+        mStepCount++;
+        return mSizes[index];
+    }
+
+    private void takeCounters() {
+        mLastProcessedFrames = getProcessedFrames();
+        mLastProcessingNanos = getProcessingNanos();
+        mLastRenderedFrames = getRenderedFrames();
+        mLastRenderNanos = getRenderNanos();
+    }
+
+    /**
+     * @return The number of frames which went through the pipeline, converted or not
+     */
+    private long getProcessedFrames() {
+        long frames = 0;
+        for (FramePipeline.Stage stage : mFramePipeline.getStages()) {
+            if (!stage.isAsynchronous()) {
+                frames = Math.max(frames, stage.getFrameCount());
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * @return The total time of the stages running on the thread delivering the frames, which
+     * hold up the next frame
+     */
+    private long getProcessingNanos() {
+        long nanos = 0;
+        for (FramePipeline.Stage stage : mFramePipeline.getStages()) {
+            if (!stage.isAsynchronous()) {
+                nanos += stage.getTotalNanos();
+            }
+        }
+        return nanos;
+    }
+
+    private long getRenderedFrames() {
+        final JmeARapplication application = mApplication;
+        return application != null ? application.getRenderedFrameCount() : 0;
+    }
+
+    private long getRenderNanos() {
+        final JmeARapplication application = mApplication;
+        return application != null ? application.getRenderNanos() : 0;
+    }
+
+    private static long getArea(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+}
@@ -0,0 +1,350 @@
+package com.ar4android.cameraAccessJME;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Records the raw preview frames as the camera delivered them into a ring file of fixed size,
+ * to see what the camera saw when something went wrong in the field.
+ * <p>
+ * The file is allocated and memory-mapped once when it is opened and divided into slots of
+ * equal size, so it never grows and the oldest frames are overwritten. The thread delivering a
+ * frame only copies its planes into one of {@value #PENDING_FRAMES} direct buffers, natively and
+ * without a copy on the Java heap, and a writer thread of the recorder moves them into the mapped
+ * file. A page fault on the mapping therefore only blocks the writer, and the camera gets its
+ * buffer back as soon as the planes were copied; the kernel writes the pages back to storage in
+ * the background. Frames which do not fit into a slot, or arrive while all buffers wait for the
+ * writer, are dropped.
+ * <p>
+ * The file starts with a header of {@value #FILE_HEADER_BYTES} bytes: the magic
+ * {@value #FILE_MAGIC}, the version, the slot size, the slot count and the slot written next,
+ * all little endian ints. Every slot starts with a header of {@value #SLOT_HEADER_BYTES} bytes:
+ * the magic {@value #SLOT_MAGIC} (0 while the slot is written or still empty), the sequence
+ * number of the record, the timestamp and frame number of {@link CameraFrame}, the timestamp's
+ * time base (1 for realtime), the format, width, height, Y row stride, UV row stride, UV pixel
+ * stride, and the lengths of the Y, U and V planes, which follow in that order. The planes are
+ * stored as the strides describe them; for interleaved chroma the U and V planes overlap.
+ * <p>
+ * Frames are recorded by one thread at a time; the file may be opened and closed from any
+ * thread.
+ */
+public class RawFrameRecorder {
+
+    public static final int FILE_MAGIC = 0x52465231;
+    public static final int SLOT_MAGIC = 0x46524d31;
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_BYTES = 64;
+    public static final int SLOT_HEADER_BYTES = 80;
+
+    private static final int FILE_NEXT_SLOT = 16;
+    private static final int PENDING_FRAMES = 3;
+
+    /**
+     * A frame copied out of the camera's planes, waiting for the writer.
+     */
+    private static final class PendingFrame {
+        final ByteBuffer mData;
+        long mTimestampNs;
+        long mFrameNumber;
+        boolean mTimestampRealtime;
+        int mFormat;
+        int mWidth;
+        int mHeight;
+        int mYRowStride;
+        int mUvRowStride;
+        int mUvPixelStride;
+        int mYLength;
+        int mULength;
+        int mVLength;
+
+        PendingFrame(int capacity) {
+            mData = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    /**
+     * Handed to the writer after the last frame to make it stop.
+     */
+    private static final PendingFrame STOP = new PendingFrame(0);
+
+    private final File mFile;
+    private final long mCapacityBytes;
+    private final int mSlotBytes;
+
+    // the frames ready to be filled, and the filled ones and STOP waiting for the writer
+    private final ArrayBlockingQueue<PendingFrame> mFree =
+            new ArrayBlockingQueue<PendingFrame>(PENDING_FRAMES);
+    private final ArrayBlockingQueue<PendingFrame> mFilled =
+            new ArrayBlockingQueue<PendingFrame>(PENDING_FRAMES + 1);
+    private volatile boolean mOpen;
+    private Thread mWriter;
+
+    // the mapping is written by the writer, which holds the lock meanwhile
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+    private int mSlotCount;
+    private int mNextSlot;
+    private long mSequence;
+
+    private long mRecordedCount;
+    private long mRecordedBytes;
+    // only written by the thread recording the frames
+    private volatile long mDroppedCount;
+    private volatile long mBusyCount;
+
+    /**
+     * @param file          The ring file, created or overwritten by {@link #open()}
+     * @param capacityBytes The size of the file, at most 2 GB
+     * @param slotBytes     The space of a frame including its header; frames with more bytes
+     *                      are dropped
+     */
+    public RawFrameRecorder(File file, long capacityBytes, int slotBytes) {
+        mFile = file;
+        mCapacityBytes = Math.min(capacityBytes, Integer.MAX_VALUE);
+        mSlotBytes = slotBytes;
+    }
+
+    /**
+     * Allocates and maps the file and starts the writer. Recording starts at its first slot.
+     */
+    public void open() throws IOException {
+        // the writer of a previous recording needs the lock to finish
+        close();
+        openFile();
+    }
+
+    private synchronized void openFile() throws IOException {
+        final int slotCount = (int) ((mCapacityBytes - FILE_HEADER_BYTES) / mSlotBytes);
+        if (slotCount <= 0) {
+            throw new IOException("No slot of " + mSlotBytes + " bytes fits into "
+                    + mCapacityBytes + " bytes");
+        }
+        final long size = FILE_HEADER_BYTES + (long) slotCount * mSlotBytes;
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(size);
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        mRandomAccessFile = file;
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mSlotCount = slotCount;
+        mNextSlot = 0;
+        // the slots of a previous recording are not valid anymore
+        for (int i = 0; i < slotCount; i++) {
+            mBuffer.putInt(FILE_HEADER_BYTES + i * mSlotBytes, 0);
+        }
+        mBuffer.putInt(0, FILE_MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, mSlotBytes);
+        mBuffer.putInt(12, slotCount);
+        mBuffer.putInt(FILE_NEXT_SLOT, 0);
+
+        // frames filled while the previous writer was stopped were never written
+        mFilled.drainTo(mFree);
+        while (mFree.size() < PENDING_FRAMES) {
+            mFree.add(new PendingFrame(mSlotBytes - SLOT_HEADER_BYTES));
+        }
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        }, "RawFrameRecorder");
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mWriter.start();
+        mOpen = true;
+    }
+
+    /**
+     * Copies a frame for the writer, which appends it to the file and overwrites the oldest one
+     * once the file is full. Does nothing if the file is not open. The planes of {@code frame}
+     * are read but left as they were, and not used anymore once this method returns.
+     *
+     * @return Whether the frame was handed to the writer
+     */
+    public boolean record(CameraFrame frame) {
+        if (!mOpen) {
+            return false;
+        }
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        final int yLength = frame.getYRowStride() * (height - 1) + width;
+        final int uvLength = frame.getUvRowStride() * (chromaHeight - 1)
+                + frame.getUvPixelStride() * (chromaWidth - 1) + 1;
+        if (SLOT_HEADER_BYTES + yLength + 2L * uvLength > mSlotBytes) {
+            mDroppedCount++;
+            return false;
+        }
+        final PendingFrame pending = mFree.poll();
+        if (pending == null) {
+            mBusyCount++;
+            return false;
+        }
+
+        final ByteBuffer data = pending.mData;
+        data.clear();
+        pending.mYLength = copy(frame.getYBuffer(), frame.getYOffset(), yLength, data);
+        pending.mULength = copy(frame.getUBuffer(), frame.getUOffset(), uvLength, data);
+        pending.mVLength = copy(frame.getVBuffer(), frame.getVOffset(), uvLength, data);
+        data.flip();
+        pending.mTimestampNs = frame.getTimestampNs();
+        pending.mFrameNumber = frame.getFrameNumber();
+        pending.mTimestampRealtime = frame.isTimestampRealtime();
+        pending.mFormat = frame.getFormat();
+        pending.mWidth = width;
+        pending.mHeight = height;
+        pending.mYRowStride = frame.getYRowStride();
+        pending.mUvRowStride = frame.getUvRowStride();
+        pending.mUvPixelStride = frame.getUvPixelStride();
+        // only full if the recorder is reopened while a frame is copied
+        if (!mFilled.offer(pending)) {
+            mBusyCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs on the writer thread until {@link #STOP} arrives, after all frames filled before it.
+     */
+    private void writeFrames() {
+        while (true) {
+            final PendingFrame pending;
+            try {
+                pending = mFilled.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pending == STOP) {
+                return;
+            }
+            write(pending);
+            mFree.offer(pending);
+        }
+    }
+
+    private synchronized void write(PendingFrame pending) {
+        final MappedByteBuffer buffer = mBuffer;
+        if (buffer == null) {
+            return;
+        }
+        final int slot = FILE_HEADER_BYTES + mNextSlot * mSlotBytes;
+        // the slot is invalid until all of it was written
+        buffer.putInt(slot, 0);
+        buffer.position(slot + SLOT_HEADER_BYTES);
+        buffer.put(pending.mData);
+
+        buffer.putLong(slot + 4, mSequence++);
+        buffer.putLong(slot + 12, pending.mTimestampNs);
+        buffer.putLong(slot + 20, pending.mFrameNumber);
+        buffer.putInt(slot + 28, pending.mTimestampRealtime ? 1 : 0);
+        buffer.putInt(slot + 32, pending.mFormat);
+        buffer.putInt(slot + 36, pending.mWidth);
+        buffer.putInt(slot + 40, pending.mHeight);
+        buffer.putInt(slot + 44, pending.mYRowStride);
+        buffer.putInt(slot + 48, pending.mUvRowStride);
+        buffer.putInt(slot + 52, pending.mUvPixelStride);
+        buffer.putInt(slot + 56, pending.mYLength);
+        buffer.putInt(slot + 60, pending.mULength);
+        buffer.putInt(slot + 64, pending.mVLength);
+        buffer.putInt(slot, SLOT_MAGIC);
+
+        mNextSlot = (mNextSlot + 1) % mSlotCount;
+        buffer.putInt(FILE_NEXT_SLOT, mNextSlot);
+        mRecordedCount++;
+        mRecordedBytes += pending.mYLength + pending.mULength + pending.mVLength;
+    }
+
+    /**
+     * Lets the writer finish the frames handed to it, writes the recorded frames back to storage
+     * and closes the file.
+     */
+    public void close() {
+        final Thread writer;
+        synchronized (this) {
+            mOpen = false;
+            writer = mWriter;
+            mWriter = null;
+        }
+        if (writer != null) {
+            try {
+                mFilled.put(STOP);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeFile();
+    }
+
+    private synchronized void closeFile() {
+        if (mBuffer == null) {
+            return;
+        }
+        mBuffer.force();
+        // the mapping stays valid until the buffer is collected, which frees it
+        mBuffer = null;
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mRandomAccessFile = null;
+    }
+
+    public synchronized long getRecordedCount() {
+        return mRecordedCount;
+    }
+
+    /**
+     * @return The number of frames which did not fit into a slot
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return The number of frames which arrived while all buffers waited for the writer
+     */
+    public long getBusyCount() {
+        return mBusyCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mFile + ": " + mRecordedCount + " frames, " + mRecordedBytes / (1024 * 1024)
+                + " MB in " + mSlotCount + " slots of " + mSlotBytes / 1024 + " KB, "
+                + mDroppedCount + " dropped, " + mBusyCount + " missed while writing";
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code src} from {@code offset} to the position of
+     * {@code dst}, natively for a direct {@code src}. The position and limit of {@code src} are
+     * restored.
+     *
+     * @return The number of bytes copied, fewer if the last row of a plane is not padded to
+     * its stride
+     */
+    private static int copy(ByteBuffer src, int offset, int length, ByteBuffer dst) {
+        final int position = src.position();
+        final int limit = src.limit();
+        length = Math.min(length, src.capacity() - offset);
+        src.limit(offset + length);
+        src.position(offset);
+        dst.put(src);
+        src.limit(limit);
+        src.position(position);
+        return length;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.texture.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts frames with the exact floating point {@link YuvColorMatrix} coefficients, rounding
+ * every channel to nearest.
+ * <p>
+ * Far too slow for the preview, this serves as the reference the fast kernels' colour accuracy
+ * is measured against. It supports the same output options as the kernels.
+ */
+public class ReferenceYuvConverter extends AbstractYuvConverter {
+
+    @Override
+    public void convertRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow) {
+        if (getDownscale() != 1) {
+            convertScaledRows(frame, out, startRow, endRow);
+            return;
+        }
+        if (getOutputFormat() == Image.Format.Luminance8) {
+            convertLuminanceRows(frame, out, startRow, endRow);
+            return;
+        }
+
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int bytesPerPixel = getBytesPerPixel();
+        final int columnStep = getColumnStep(width, height) * bytesPerPixel;
+        final int rowStep = getRowStep(width, height) * bytesPerPixel;
+        final int firstPtr = getFirstPixel(width, height) * bytesPerPixel;
+
+        for (int row = startRow; row < endRow; row++) {
+            int outPtr = firstPtr + row * rowStep;
+            for (int col = 0; col < width; col++) {
+                final int uvPtr = (row >> 1) * frame.getUvRowStride() + (col >> 1) * frame.getUvPixelStride();
+                final int Y = frame.getYBuffer().get(frame.getYOffset() + row * frame.getYRowStride() + col) & 0xff;
+                final int Cb = frame.getUBuffer().get(frame.getUOffset() + uvPtr) & 0xff;
+                final int Cr = frame.getVBuffer().get(frame.getVOffset() + uvPtr) & 0xff;
+                putPackedRgb(out, outPtr, toRgb(Y, Cb, Cr), bytesPerPixel);
+                outPtr += columnStep;
+            }
+        }
+    }
+
+    @Override
+    protected int toRgb(int Y, int Cb, int Cr) {
+        final YuvColorMatrix matrix = getColorMatrix();
+        final float lum = (Y - matrix.yOffset) * matrix.yScale;
+        final float cb = Cb - 128f;
+        final float cr = Cr - 128f;
+        final int R = clamp(lum + matrix.crToR * cr);
+        final int G = clamp(lum - matrix.cbToG * cb - matrix.crToG * cr);
+        final int B = clamp(lum + matrix.cbToB * cb);
+        return (R << 16) | (G << 8) | B;
+    }
+
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,143 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.material.Material;
+import com.jme3.renderer.Renderer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+
+/**
+ * The texture of the video background, uploaded only when a new camera frame arrived.
+ * <p>
+ * The texture is bound to the material once; a new frame replaces the data of the same
+ * {@link Image}, so the renderer updates its GL texture in place instead of binding another one.
+ * Only when the frame size changes, and with it the image, the texture is pointed at the new
+ * image. The texture is neither mipmapped nor repeated, so no mipmaps are generated after
+ * every upload. Uploads and render frames are counted; with a 30 fps camera on a 60 Hz display
+ * there is an upload every other frame. Only used on the render thread.
+ * <p>
+ * {@link #setDoubleBuffered(boolean) Double buffered}, two textures take turns: a new frame is
+ * uploaded into the one the previous render frame did not draw with, right in
+ * {@link #update(Image)} instead of while the scene is drawn, and then shown. The GPU may
+ * still be reading the other texture, and the driver does not have to wait for it or copy it
+ * before the upload. The frame buffer is no longer needed once {@link #update(Image)} returned.
+ */
+public class StreamingTexture {
+
+    private final Renderer mRenderer;
+    private final Material mMaterial;
+    private final String mParamName;
+    private final Texture2D mTexture = createTexture();
+    // the textures taking turns when double buffered, and the one written next
+    private final Texture2D[] mBufferTextures = {createTexture(), createTexture()};
+    private int mBackIndex;
+    private boolean mDoubleBuffered;
+    private Texture2D mBoundTexture;
+
+    private long mRenderFrameCount;
+    private long mUploadCount;
+
+    /**
+     * @param renderer  The renderer uploading the frames when double buffered
+     * @param material  The material the texture is bound to once the first frame arrived
+     * @param paramName The texture parameter of the material, e.g. "ColorMap"
+     */
+    public StreamingTexture(Renderer renderer, Material material, String paramName) {
+        mRenderer = renderer;
+        mMaterial = material;
+        mParamName = paramName;
+    }
+
+    /**
+     * @param doubleBuffered Whether new frames are uploaded into the texture the previous render
+     *                       frame did not draw with. Takes effect with the next frame.
+     */
+    public void setDoubleBuffered(boolean doubleBuffered) {
+        mDoubleBuffered = doubleBuffered;
+    }
+
+    public boolean isDoubleBuffered() {
+        return mDoubleBuffered;
+    }
+
+    /**
+     * Called once per render frame.
+     *
+     * @param image The image holding a new frame, as returned by
+     *              {@link VideoBackgroundAppState}, or {@code null} if there is none,
+     *              in which case the texture keeps the frame uploaded last
+     * @return Whether the texture is uploaded in this frame
+     */
+    public boolean update(Image image) {
+        mRenderFrameCount++;
+        if (image == null) {
+            return false;
+        }
+        final Texture2D texture;
+        if (mDoubleBuffered) {
+            texture = mBufferTextures[mBackIndex];
+            mBackIndex ^= 1;
+            Image bufferImage = texture.getImage();
+            if (bufferImage == null || bufferImage.getFormat() != image.getFormat()
+                    || bufferImage.getWidth() != image.getWidth()
+                    || bufferImage.getHeight() != image.getHeight()) {
+                if (bufferImage != null) {
+                    mRenderer.deleteImage(bufferImage);
+                }
+                bufferImage = new Image(image.getFormat(), image.getWidth(), image.getHeight(),
+                        null, image.getColorSpace());
+                texture.setImage(bufferImage);
+            }
+            bufferImage.setData(image.getData(0));
+            // upload now, while the frame is certain to be held
+            mRenderer.setTexture(0, texture);
+        } else {
+            texture = mTexture;
+            if (texture.getImage() != image) {
+                // the frame size changed, the renderer creates a GL texture for the new image
+                texture.setImage(image);
+            }
+        }
+        if (mBoundTexture != texture) {
+            mMaterial.setTexture(mParamName, texture);
+            mBoundTexture = texture;
+        }
+        mUploadCount++;
+        return true;
+    }
+
+    /**
+     * @return The texture showing the frame uploaded last, or {@code null} before the first one
+     */
+    public Texture2D getTexture() {
+        return mBoundTexture;
+    }
+
+    /**
+     * @return The number of render frames {@link #update(Image)} was called for
+     */
+    public long getRenderFrameCount() {
+        return mRenderFrameCount;
+    }
+
+    /**
+     * @return The number of frames uploaded
+     */
+    public long getUploadCount() {
+        return mUploadCount;
+    }
+
+    @Override
+    public String toString() {
+        return mUploadCount + " uploads in " + mRenderFrameCount + " render frames"
+                + (mDoubleBuffered ? ", double buffered" : "");
+    }
+
+    private static Texture2D createTexture() {
+        final Texture2D texture = new Texture2D();
+        texture.setMagFilter(Texture.MagFilter.Bilinear);
+        texture.setMinFilter(Texture.MinFilter.BilinearNoMipMaps);
+        texture.setWrap(Texture.WrapMode.EdgeClamp);
+        return texture;
+    }
+}
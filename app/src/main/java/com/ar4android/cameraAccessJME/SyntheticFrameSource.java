@@ -0,0 +1,87 @@
+package com.ar4android.cameraAccessJME;
+
+import android.os.SystemClock;
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Generates NV21 frames of a moving diagonal gradient at a fixed frame rate, to run the frame
+ * pipeline and the video background without a camera, e.g. on an emulator or to measure them
+ * without the camera's own load. The frames carry realtime timestamps and consecutive frame
+ * numbers like the ones of a camera.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final long mIntervalMs;
+    private final ByteBuffer mBuffer;
+    private final CameraFrame mFrame = new CameraFrame();
+    private Timer mTimer;
+    private long mFrameNumber;
+
+    public SyntheticFrameSource(int width, int height, int fps) {
+        mWidth = width;
+        mHeight = height;
+        mIntervalMs = Math.max(1, 1000 / fps);
+        mBuffer = ByteBuffer.allocateDirect(width * height * 3 / 2);
+        // neutral chroma, the pattern only moves in the luma plane
+        for (int i = width * height; i < mBuffer.capacity(); i++) {
+            mBuffer.put(i, (byte) 128);
+        }
+    }
+
+    @Override
+    public synchronized void start(final CameraWrapper.PreviewCallback frameCallback,
+                                   final CameraWrapper.PreviewSizeCallback sizeCallback) {
+        stop();
+        final Timer timer = new Timer("SyntheticFrameSource", true);
+        mTimer = timer;
+        timer.scheduleAtFixedRate(new TimerTask() {
+            private boolean mSizeReported;
+
+            @Override
+            public void run() {
+                synchronized (SyntheticFrameSource.this) {
+                    // a frame may have been due while the source was stopped
+                    if (mTimer == timer) {
+                        deliver();
+                    }
+                }
+            }
+
+            private void deliver() {
+                if (!mSizeReported) {
+                    sizeCallback.onPreviewSizeChange(new Size(mWidth, mHeight), 0, false);
+                    mSizeReported = true;
+                }
+                final long timestampNs = SystemClock.elapsedRealtimeNanos();
+                fill(mFrameNumber);
+                mFrame.setNv21(mBuffer, mWidth, mHeight);
+                mFrame.setTimestamp(timestampNs, true, mFrameNumber++);
+                frameCallback.onPreviewFrame(mFrame);
+            }
+        }, 0, mIntervalMs);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+        }
+    }
+
+    private void fill(long frameNumber) {
+        final int shift = (int) (frameNumber * 4);
+        for (int y = 0; y < mHeight; y++) {
+            final int row = y * mWidth;
+            for (int x = 0; x < mWidth; x++) {
+                mBuffer.put(row + x, (byte) (x + y + shift));
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.app.state.AppStateManager;
+import com.jme3.material.Material;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Quad;
+import com.jme3.texture.Image;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shows the camera frames as the video background of an application: owns the fullscreen quad,
+ * its material and {@link StreamingTexture}, the viewport or {@link BackgroundCompositor} it is
+ * drawn with and the {@link FrameExchange} the frames arrive through.
+ * <p>
+ * The state does not care where the frames come from; any {@link FrameSource} feeding a
+ * {@link FramePipeline} publishes into the exchange set with
+ * {@link #setCameraFrames(FrameExchange, Image)}, and producers managing their own image hand it
+ * over with {@link #setImage(Image)}. The setters may be called on any thread; everything else
+ * runs on the render thread. The background has to be set up before the application's own
+ * viewports are created, see {@link #setSinglePassCompositing(boolean)}.
+ */
+public class VideoBackgroundAppState extends AbstractAppState {
+
+    public interface FrameListener {
+        /**
+         * Called on the render thread for every new frame taken from the exchange, before it is
+         * uploaded.
+         */
+        void onFrame(long timestampNs, boolean timestampRealtime, long frameNumber);
+    }
+
+    /**
+     * The exchange the camera frames arrive through and the image they are uploaded with,
+     * replaced together whenever the preview size changes.
+     */
+    private static final class CameraFrames {
+        final FrameExchange<PooledFrame> mExchange;
+        final Image mImage;
+
+        CameraFrames(FrameExchange<PooledFrame> exchange, Image image) {
+            mExchange = exchange;
+            mImage = image;
+        }
+    }
+
+    private volatile CameraFrames mCameraFrames;
+    // the frames the render thread took last, only accessed by the render thread
+    private CameraFrames mPolledCameraFrames;
+    private final AtomicReference<Image> mPendingImage = new AtomicReference<Image>();
+    private volatile FrameLatencyStats mFrameLatencyStats;
+    private volatile FrameListener mFrameListener;
+    private volatile boolean mDoubleBufferedUpload;
+    private volatile boolean mSinglePassCompositing;
+    // the timestamp of the frame taken in the current update, only accessed by the render thread
+    private boolean mFramePolled;
+    private long mPolledTimestampNs;
+    private boolean mPolledTimestampRealtime;
+    private long mPolledFrameNumber = -1;
+
+    private Geometry mGeometry;
+    private StreamingTexture mTexture;
+    private RenderManager mRenderManager;
+    // the main viewport, and the one of the background if it is not drawn into the former
+    private ViewPort mMainViewPort;
+    private ViewPort mViewPort;
+    private BackgroundCompositor mCompositor;
+    // the size of the screen the quad of the own viewport was laid out for
+    private int mLayoutWidth;
+    private int mLayoutHeight;
+
+    /**
+     * Connects the background to the frames published by the camera thread.
+     *
+     * @param exchange The exchange the converted frames are published through, all in the
+     *                 format and size of {@code image}. Once the producer moved on to another
+     *                 exchange, the frames left in this one are released by the render thread.
+     * @param image    The image the frames are uploaded with. Its data is replaced by the
+     *                 latest frame in {@link #pollImage()}.
+     */
+    public void setCameraFrames(FrameExchange<PooledFrame> exchange, Image image) {
+        mCameraFrames = new CameraFrames(exchange, image);
+    }
+
+    /**
+     * Shows a single image as the next frame, for producers which manage their own image
+     * instead of publishing through a {@link FrameExchange}.
+     */
+    public void setImage(Image image) {
+        mPendingImage.set(image);
+    }
+
+    /**
+     * @param stats Records when the frames were uploaded and rendered, or {@code null} to record
+     *              nothing
+     */
+    public void setFrameLatencyStats(FrameLatencyStats stats) {
+        mFrameLatencyStats = stats;
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        mFrameListener = listener;
+    }
+
+    /**
+     * @param doubleBuffered Whether the frames are uploaded into two textures taking turns, see
+     *                       {@link StreamingTexture#setDoubleBuffered(boolean)}
+     */
+    public void setDoubleBufferedUpload(boolean doubleBuffered) {
+        mDoubleBufferedUpload = doubleBuffered;
+    }
+
+    /**
+     * Draws the background into the main viewport with a {@link BackgroundCompositor} instead of
+     * into a viewport of its own, rendered before all others. Must be set before the state is
+     * initialized.
+     */
+    public void setSinglePassCompositing(boolean singlePass) {
+        mSinglePassCompositing = singlePass;
+    }
+
+    public boolean isSinglePassCompositing() {
+        return mSinglePassCompositing;
+    }
+
+    /**
+     * @return The texture of the background, or {@code null} before the state was initialized
+     */
+    public StreamingTexture getTexture() {
+        return mTexture;
+    }
+
+    @Override
+    public void initialize(AppStateManager stateManager, Application app) {
+        super.initialize(stateManager, app);
+        mRenderManager = app.getRenderManager();
+        mMainViewPort = app.getViewPort();
+
+        mGeometry = new Geometry("VideoBackground", new Quad(1, 1, true));
+        final Material material = new Material(app.getAssetManager(),
+                "Common/MatDefs/Misc/Unshaded.j3md");
+        mGeometry.setMaterial(material);
+        mTexture = new StreamingTexture(app.getRenderer(), material, "ColorMap");
+
+        if (mSinglePassCompositing) {
+            mCompositor = BackgroundCompositor.attach(mMainViewPort, mGeometry);
+            return;
+        }
+        // an orthographic camera sees the quad, centered and stretched to the screen width
+        final Camera camera = app.getCamera().clone();
+        camera.setParallelProjection(true);
+        // drawn before the main viewports, which then must not clear its colors
+        mViewPort = mRenderManager.createPreView("VideoBGView", camera);
+        mViewPort.setClearFlags(true, true, true);
+        mViewPort.attachScene(mGeometry);
+        mMainViewPort.setClearFlags(false, true, true);
+        layout();
+    }
+
+    /**
+     * Centers the quad of the own viewport and stretches it to the width of the screen, again
+     * whenever the screen was resized, e.g. after the display rotated.
+     */
+    private void layout() {
+        final Camera camera = mViewPort.getCamera();
+        mLayoutWidth = camera.getWidth();
+        mLayoutHeight = camera.getHeight();
+        final float width = (float) mLayoutWidth / mLayoutHeight;
+        mGeometry.setLocalTranslation(-0.5f * width, -0.5f, 0f);
+        mGeometry.setLocalScale(width, 1f, 1f);
+    }
+
+    @Override
+    public void update(float tpf) {
+        mTexture.setDoubleBuffered(mDoubleBufferedUpload);
+        mTexture.update(pollImage());
+        if (mViewPort != null) {
+            final Camera camera = mViewPort.getCamera();
+            if (camera.getWidth() != mLayoutWidth || camera.getHeight() != mLayoutHeight) {
+                layout();
+            }
+            mGeometry.updateLogicalState(tpf);
+            mGeometry.updateGeometricState();
+        }
+    }
+
+    @Override
+    public void postRender() {
+        // the texture of a frame taken in update() was uploaded while rendering
+        if (mFramePolled) {
+            mFramePolled = false;
+            final FrameLatencyStats latencyStats = mFrameLatencyStats;
+            if (latencyStats != null) {
+                latencyStats.record(FrameLatencyStats.Point.UPLOADED, mPolledTimestampNs,
+                        mPolledTimestampRealtime);
+            }
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        if (mViewPort != null) {
+            mRenderManager.removePreView(mViewPort);
+            mViewPort = null;
+        }
+        if (mCompositor != null) {
+            mMainViewPort.removeProcessor(mCompositor);
+            mCompositor = null;
+        }
+        mMainViewPort.setClearFlags(true, true, true);
+        if (mPolledCameraFrames != null) {
+            releaseFrames(mPolledCameraFrames.mExchange);
+            mPolledCameraFrames = null;
+        }
+        mPolledFrameNumber = -1;
+        mPolledTimestampNs = 0;
+    }
+
+    /**
+     * Takes the latest frame; the frame stays untouched by the camera thread until the next
+     * call.
+     *
+     * @return The image holding the latest frame, or {@code null} if no new frame arrived since
+     * the last call
+     */
+    private Image pollImage() {
+        final Image pending = mPendingImage.getAndSet(null);
+        if (pending != null) {
+            return pending;
+        }
+        final CameraFrames cameraFrames = mCameraFrames;
+        if (cameraFrames != mPolledCameraFrames) {
+            if (mPolledCameraFrames != null) {
+                releaseFrames(mPolledCameraFrames.mExchange);
+            }
+            mPolledCameraFrames = cameraFrames;
+        }
+        if (cameraFrames == null) {
+            return null;
+        }
+        // the exchange holds a reference to the frame until the next one is taken, which keeps
+        // it alive until the texture was uploaded
+        final PooledFrame frame = cameraFrames.mExchange.acquireLatest();
+        if (frame == null) {
+            return null;
+        }
+        // a frame published again has nothing new to upload
+        if (frame.getTimestampNs() != 0 && frame.getTimestampNs() == mPolledTimestampNs
+                && frame.getFrameNumber() == mPolledFrameNumber) {
+            return null;
+        }
+        cameraFrames.mImage.setData(frame.getBuffer());
+        mFramePolled = true;
+        mPolledTimestampNs = frame.getTimestampNs();
+        mPolledTimestampRealtime = frame.isTimestampRealtime();
+        mPolledFrameNumber = frame.getFrameNumber();
+        final FrameListener listener = mFrameListener;
+        if (listener != null) {
+            listener.onFrame(mPolledTimestampNs, mPolledTimestampRealtime, mPolledFrameNumber);
+        }
+        return cameraFrames.mImage;
+    }
+
+    private static void releaseFrames(FrameExchange<PooledFrame> exchange) {
+        final ArrayList<PooledFrame> frames = new ArrayList<PooledFrame>(3);
+        exchange.drainTo(frames);
+        for (int i = 0; i < frames.size(); i++) {
+            frames.get(i).release();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.ar4android.cameraAccessJME;
+
+/**
+ * The YCbCr to RGB conversions the converters support.
+ * <p>
+ * Camera frames are usually BT.601 full range (JFIF), which is what the converters assumed
+ * before these were selectable. HD video pipelines and some HALs deliver BT.709 and/or
+ * limited ("video") range, where luminance only spans 16..235 and chroma 16..240.
+ */
+public enum YuvColorMatrix {
+    BT601_FULL(0.299f, 0.114f, false),
+    BT601_LIMITED(0.299f, 0.114f, true),
+    BT709_FULL(0.2126f, 0.0722f, false),
+    BT709_LIMITED(0.2126f, 0.0722f, true);
+
+    /**
+     * The number of fractional bits of the fixed-point coefficients.
+     */
+    public static final int FIXED_POINT_SHIFT = 8;
+
+    // the exact coefficients, used by the reference converter
+    public final float yOffset;
+    public final float yScale;
+    public final float crToR;
+    public final float cbToG;
+    public final float crToG;
+    public final float cbToB;
+
+    // the coefficients scaled by 1 << FIXED_POINT_SHIFT and rounded
+    public final int yOffsetFixed;
+    public final int yScaleFixed;
+    public final int crToRFixed;
+    public final int cbToGFixed;
+    public final int crToGFixed;
+    public final int cbToBFixed;
+
+    /**
+     * @param kr      The luminance weight of red
+     * @param kb      The luminance weight of blue
+     * @param limited Whether the samples use the limited range
+     */
+    YuvColorMatrix(float kr, float kb, boolean limited) {
+        final float kg = 1f - kr - kb;
+        // limited range samples are stretched to 0..255 before the conversion
+        final float chromaScale = limited ? 255f / 224f : 1f;
+        yOffset = limited ? 16f : 0f;
+        yScale = limited ? 255f / 219f : 1f;
+        crToR = 2f * (1f - kr) * chromaScale;
+        cbToG = 2f * kb * (1f - kb) / kg * chromaScale;
+        crToG = 2f * kr * (1f - kr) / kg * chromaScale;
+        cbToB = 2f * (1f - kb) * chromaScale;
+
+        yOffsetFixed = (int) yOffset;
+        yScaleFixed = toFixed(yScale);
+        crToRFixed = toFixed(crToR);
+        cbToGFixed = toFixed(cbToG);
+        crToGFixed = toFixed(crToG);
+        cbToBFixed = toFixed(cbToB);
+    }
+
+    private static int toFixed(float value) {
+        return Math.round(value * (1 << FIXED_POINT_SHIFT));
+    }
+}
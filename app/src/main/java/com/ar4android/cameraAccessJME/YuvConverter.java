@@ -0,0 +1,58 @@
+package com.ar4android.cameraAccessJME;
+
+import com.jme3.texture.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A kernel which converts YUV 4:2:0 camera frames into pixels JME can upload as a texture.
+ * The pixel layout of the result is given by {@link #getOutputFormat()}.
+ * <p>
+ * Implementations must not allocate per frame. {@link #convertRows} has to be safe to call
+ * concurrently for disjoint row ranges of the same frame, which is what
+ * {@link ParallelYuvConverter} relies on.
+ */
+public interface YuvConverter {
+
+    /**
+     * Converts {@code frame} into {@code out}.
+     *
+     * @param frame The source frame
+     * @param out   The destination, large enough for {@link #getOutputWidth} times
+     *              {@link #getOutputHeight} pixels of the output format. Pixels are written with absolute puts starting at index 0,
+     *              so its position is left alone.
+     */
+    void convert(CameraFrame frame, ByteBuffer out);
+
+    /**
+     * Converts the rows {@code startRow} (inclusive) to {@code endRow} (exclusive) of
+     * {@code frame} into the matching part of {@code out}. Rows are counted in the possibly
+     * downscaled but not yet rotated image, so they range up to {@link #getRowCount}.
+     *
+     * @param frame    The source frame
+     * @param out      The destination of the whole frame, already set to little-endian order
+     * @param startRow The first row to convert, must be even so a band starts on a chroma row
+     * @param endRow   The row after the last one to convert
+     */
+    void convertRows(CameraFrame frame, ByteBuffer out, int startRow, int endRow);
+
+    /**
+     * @return The JME image format the frames are converted into
+     */
+    Image.Format getOutputFormat();
+
+    /**
+     * @return The number of rows {@link #convertRows} covers for a frame of the given size
+     */
+    int getRowCount(int frameWidth, int frameHeight);
+
+    /**
+     * @return The width of the converted image for a frame of the given size
+     */
+    int getOutputWidth(int frameWidth, int frameHeight);
+
+    /**
+     * @return The height of the converted image for a frame of the given size
+     */
+    int getOutputHeight(int frameWidth, int frameHeight);
+}
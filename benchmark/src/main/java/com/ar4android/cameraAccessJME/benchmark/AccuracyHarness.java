@@ -0,0 +1,320 @@
+package com.ar4android.cameraAccessJME.benchmark;
+
+import com.ar4android.cameraAccessJME.AbstractYuvConverter;
+import com.ar4android.cameraAccessJME.CameraFrame;
+import com.ar4android.cameraAccessJME.FixedPointYuvConverter;
+import com.ar4android.cameraAccessJME.LutYuvConverter;
+import com.ar4android.cameraAccessJME.ParallelYuvConverter;
+import com.ar4android.cameraAccessJME.ReferenceYuvConverter;
+import com.ar4android.cameraAccessJME.YuvColorMatrix;
+import com.ar4android.cameraAccessJME.YuvConverter;
+import com.jme3.texture.Image;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the conversion kernels, on their own and run by a {@link ParallelYuvConverter},
+ * against {@link ReferenceYuvConverter} for every {@link YuvColorMatrix}, output format,
+ * downscale factor and filter, and prints the maximum and mean absolute error per channel in
+ * steps of the format's precision, e.g. 1/32 for the red channel of RGB565.
+ * <p>
+ * Every kernel, the reference included, must also emit every rotation and mirroring exactly as
+ * its unrotated output with the pixels moved to their rotated positions; mismatches are
+ * printed.
+ * <p>
+ * The frames are a sweep over all sample values, random noise in both frame layouts and any
+ * recorded NV21 frames given on the command line as {@code WIDTHxHEIGHT file} pairs. The
+ * process exits with status 1 if any error exceeds {@code --max-error} (default
+ * {@value #DEFAULT_MAX_ERROR}) or any orientation mismatches, so it can guard changes to the
+ * kernels in a build.
+ */
+public class AccuracyHarness {
+
+    private static final int DEFAULT_MAX_ERROR = 2;
+
+    private static final Image.Format[] FORMATS = {
+            Image.Format.RGB8, Image.Format.RGB565, Image.Format.RGBA8, Image.Format.Luminance8};
+    // the downscale factors and their filters, the filter makes no difference at full size
+    private static final int[] DOWNSCALES = {1, 2, 2, 4, 4};
+    private static final AbstractYuvConverter.ScaleFilter[] FILTERS = {
+            AbstractYuvConverter.ScaleFilter.BOX,
+            AbstractYuvConverter.ScaleFilter.BOX, AbstractYuvConverter.ScaleFilter.BILINEAR,
+            AbstractYuvConverter.ScaleFilter.BOX, AbstractYuvConverter.ScaleFilter.BILINEAR};
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+    private static final int PARALLEL_WORKERS = 3;
+
+    /**
+     * A kernel under test: the converter which is configured, and the one which converts, which
+     * is either the same or a {@link ParallelYuvConverter} running it.
+     */
+    private static class Kernel {
+        final String name;
+        final AbstractYuvConverter converter;
+        final YuvConverter runner;
+
+        Kernel(AbstractYuvConverter converter) {
+            this.name = getName(converter);
+            this.converter = converter;
+            this.runner = converter;
+        }
+
+        Kernel(ParallelYuvConverter runner, AbstractYuvConverter converter) {
+            this.name = "Parallel" + getName(converter);
+            this.converter = converter;
+            this.runner = runner;
+        }
+
+        private static String getName(AbstractYuvConverter converter) {
+            return converter.getClass().getSimpleName().replace("YuvConverter", "");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxError = DEFAULT_MAX_ERROR;
+        final Map<String, CameraFrame> frames = new LinkedHashMap<String, CameraFrame>();
+        frames.put("sweep", TestFrames.createSweep());
+        for (TestFrames.Layout layout : TestFrames.Layout.values()) {
+            frames.put("random " + layout, TestFrames.create(layout, 640, 480, 42));
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--max-error")) {
+                maxError = Integer.parseInt(args[++i]);
+            } else {
+                frames.put(args[i + 1], readNv21(args[i], new File(args[i + 1])));
+                i++;
+            }
+        }
+
+        final Kernel reference = new Kernel(new ReferenceYuvConverter());
+        // the parallel converters run kernels of their own, configured through the Kernel
+        final AbstractYuvConverter fixedPoint = new FixedPointYuvConverter();
+        final AbstractYuvConverter lut = new LutYuvConverter();
+        final ParallelYuvConverter parallelFixedPoint = new ParallelYuvConverter(
+                fixedPoint, PARALLEL_WORKERS, Thread.NORM_PRIORITY);
+        final ParallelYuvConverter parallelLut = new ParallelYuvConverter(
+                lut, PARALLEL_WORKERS, Thread.NORM_PRIORITY);
+        final Kernel[] kernels = {
+                new Kernel(new FixedPointYuvConverter()),
+                new Kernel(new LutYuvConverter()),
+                new Kernel(parallelFixedPoint, fixedPoint),
+                new Kernel(parallelLut, lut)};
+        boolean failed;
+        try {
+            failed = compareColours(frames, reference, kernels, maxError);
+            System.out.println();
+            final Kernel[] allKernels = new Kernel[kernels.length + 1];
+            allKernels[0] = reference;
+            System.arraycopy(kernels, 0, allKernels, 1, kernels.length);
+            failed |= compareOrientations(frames, allKernels);
+        } finally {
+            parallelFixedPoint.shutdown();
+            parallelLut.shutdown();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the colour errors of every kernel.
+     *
+     * @return Whether any error exceeded {@code maxError}
+     */
+    private static boolean compareColours(Map<String, CameraFrame> frames, Kernel reference,
+                                          Kernel[] kernels, int maxError) {
+        System.out.println(String.format("%-30s %-14s %-20s %-10s %5s %-8s   %-14s %s",
+                "frame", "matrix", "kernel", "format", "scale", "filter", "max R/G/B", "mean R/G/B"));
+        boolean failed = false;
+        for (Map.Entry<String, CameraFrame> frame : frames.entrySet()) {
+            for (YuvColorMatrix matrix : YuvColorMatrix.values()) {
+                for (Image.Format format : FORMATS) {
+                    for (int scale = 0; scale < DOWNSCALES.length; scale++) {
+                        configure(reference.converter, matrix, format, scale, 0, false);
+                        final ByteBuffer expected = convert(reference, frame.getValue());
+
+                        for (Kernel kernel : kernels) {
+                            configure(kernel.converter, matrix, format, scale, 0, false);
+                            final ChannelErrors errors = new ChannelErrors();
+                            errors.compare(expected, convert(kernel, frame.getValue()), format);
+                            failed |= errors.max[0] > maxError || errors.max[1] > maxError || errors.max[2] > maxError;
+                            System.out.println(String.format("%-30s %-14s %-20s %-10s %5d %-8s   %3d %3d %3d    %.3f %.3f %.3f",
+                                    frame.getKey(), matrix, kernel.name, format, DOWNSCALES[scale],
+                                    FILTERS[scale], errors.max[0], errors.max[1], errors.max[2],
+                                    errors.mean(0), errors.mean(1), errors.mean(2)));
+                        }
+                    }
+                }
+            }
+        }
+        if (failed) {
+            System.out.println("Colour error above " + maxError);
+        }
+        return failed;
+    }
+
+    /**
+     * Checks that every rotated and mirrored output of every kernel equals its unrotated output
+     * with the pixels moved to their rotated positions.
+     *
+     * @return Whether any output differed
+     */
+    private static boolean compareOrientations(Map<String, CameraFrame> frames, Kernel[] kernels) {
+        int checked = 0;
+        int mismatches = 0;
+        for (Map.Entry<String, CameraFrame> frame : frames.entrySet()) {
+            for (Kernel kernel : kernels) {
+                for (Image.Format format : FORMATS) {
+                    for (int scale = 0; scale < DOWNSCALES.length; scale++) {
+                        configure(kernel.converter, YuvColorMatrix.BT601_FULL, format, scale, 0, false);
+                        final ByteBuffer upright = convert(kernel, frame.getValue());
+                        final int width = kernel.runner.getOutputWidth(frame.getValue().getWidth(),
+                                frame.getValue().getHeight());
+                        final int height = kernel.runner.getOutputHeight(frame.getValue().getWidth(),
+                                frame.getValue().getHeight());
+                        final ByteBuffer expected = ByteBuffer.allocate(upright.capacity());
+                        for (int rotation : ROTATIONS) {
+                            for (int mirrored = 0; mirrored < 2; mirrored++) {
+                                if (rotation == 0 && mirrored == 0) {
+                                    continue;
+                                }
+                                configure(kernel.converter, YuvColorMatrix.BT601_FULL, format, scale,
+                                        rotation, mirrored == 1);
+                                remap(upright, width, height, rotation, mirrored == 1,
+                                        format.getBitsPerPixel() / 8, expected);
+                                checked++;
+                                if (!expected.equals(convert(kernel, frame.getValue()))) {
+                                    mismatches++;
+                                    System.out.println(String.format("Orientation mismatch: %s %s %s scale %d %s rotation %d%s",
+                                            frame.getKey(), kernel.name, format, DOWNSCALES[scale],
+                                            FILTERS[scale], rotation, mirrored == 1 ? " mirrored" : ""));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(checked + " rotated and mirrored outputs checked, " + mismatches
+                + " differ from the rotated unrotated output");
+        return mismatches > 0;
+    }
+
+    /**
+     * Moves the pixels of an unrotated output to where the kernels put them for the orientation:
+     * flipped horizontally first if mirrored, then rotated clockwise.
+     */
+    private static void remap(ByteBuffer upright, int width, int height, int rotation,
+                              boolean mirrored, int bytesPerPixel, ByteBuffer out) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int mx = mirrored ? width - 1 - x : x;
+                final int target;
+                switch (rotation) {
+                    case 90:
+                        target = mx * height + (height - 1 - y);
+                        break;
+                    case 180:
+                        target = (height - 1 - y) * width + (width - 1 - mx);
+                        break;
+                    case 270:
+                        target = (width - 1 - mx) * height + y;
+                        break;
+                    default:
+                        target = y * width + mx;
+                        break;
+                }
+                for (int b = 0; b < bytesPerPixel; b++) {
+                    out.put(target * bytesPerPixel + b, upright.get((y * width + x) * bytesPerPixel + b));
+                }
+            }
+        }
+    }
+
+    private static void configure(AbstractYuvConverter converter, YuvColorMatrix matrix,
+                                  Image.Format format, int scale, int rotation, boolean mirrored) {
+        converter.setColorMatrix(matrix);
+        converter.setOutputFormat(format);
+        converter.setDownscale(DOWNSCALES[scale], FILTERS[scale]);
+        converter.setOrientation(rotation, mirrored);
+    }
+
+    private static ByteBuffer convert(Kernel kernel, CameraFrame frame) {
+        final YuvConverter converter = kernel.runner;
+        final ByteBuffer out = ByteBuffer.allocate(converter.getOutputWidth(frame.getWidth(), frame.getHeight())
+                * converter.getOutputHeight(frame.getWidth(), frame.getHeight())
+                * converter.getOutputFormat().getBitsPerPixel() / 8);
+        converter.convert(frame, out);
+        return out;
+    }
+
+    private static CameraFrame readNv21(String size, File file) throws IOException {
+        final int separator = size.indexOf('x');
+        final int width = Integer.parseInt(size.substring(0, separator));
+        final int height = Integer.parseInt(size.substring(separator + 1));
+        final byte[] data = new byte[width * height * 3 / 2];
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        final CameraFrame frame = new CameraFrame();
+        frame.setNv21(ByteBuffer.wrap(data), width, height);
+        return frame;
+    }
+
+    /**
+     * Accumulates the absolute differences of the R, G and B channels.
+     */
+    private static class ChannelErrors {
+        final int[] max = new int[3];
+        final long[] sum = new long[3];
+        long pixels;
+
+        void compare(ByteBuffer expected, ByteBuffer actual, Image.Format format) {
+            final int[] e = new int[3];
+            final int[] a = new int[3];
+            final int bytesPerPixel = format.getBitsPerPixel() / 8;
+            for (int ptr = 0; ptr < expected.capacity(); ptr += bytesPerPixel) {
+                decode(expected, ptr, format, e);
+                decode(actual, ptr, format, a);
+                for (int c = 0; c < 3; c++) {
+                    final int error = Math.abs(e[c] - a[c]);
+                    max[c] = Math.max(max[c], error);
+                    sum[c] += error;
+                }
+                pixels++;
+            }
+        }
+
+        double mean(int channel) {
+            return (double) sum[channel] / pixels;
+        }
+
+        /**
+         * Unpacks a pixel into its channels, keeping their precision.
+         */
+        private static void decode(ByteBuffer buffer, int ptr, Image.Format format, int[] rgb) {
+            if (format == Image.Format.Luminance8) {
+                // the luminance stands for all three channels
+                rgb[0] = rgb[1] = rgb[2] = buffer.get(ptr) & 0xff;
+            } else if (format == Image.Format.RGB565) {
+                final int v = (buffer.get(ptr) & 0xff) | ((buffer.get(ptr + 1) & 0xff) << 8);
+                rgb[0] = v >> 11;
+                rgb[1] = (v >> 5) & 0x3f;
+                rgb[2] = v & 0x1f;
+            } else {
+                // RGB8 or RGBA8, whose alpha is always opaque
+                rgb[0] = buffer.get(ptr) & 0xff;
+                rgb[1] = buffer.get(ptr + 1) & 0xff;
+                rgb[2] = buffer.get(ptr + 2) & 0xff;
+            }
+        }
+    }
+}
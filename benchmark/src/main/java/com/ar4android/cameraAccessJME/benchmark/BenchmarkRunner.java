@@ -0,0 +1,65 @@
+package com.ar4android.cameraAccessJME.benchmark;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+/**
+ * Runs {@link YuvConverterBenchmark} with the GC profiler attached and summarises the results
+ * as frames per second, nanoseconds per pixel and bytes allocated per frame.
+ * <p>
+ * Any JMH command line option can be passed, e.g. {@code -p resolution=640x480} to restrict a
+ * parameter or {@code -f 3} for more forks.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        final Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(YuvConverterBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        final Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.println(String.format("%-10s %-19s %-21s %-7s %12s %10s %12s",
+                "resolution", "layout", "kernel", "format", "frames/s", "ns/pixel", "B/frame"));
+        for (RunResult result : results) {
+            final BenchmarkParams params = result.getParams();
+            final String resolution = params.getParam("resolution");
+            final int separator = resolution.indexOf('x');
+            final long pixels = Long.parseLong(resolution.substring(0, separator))
+                    * Long.parseLong(resolution.substring(separator + 1));
+            final double framesPerSecond = result.getPrimaryResult().getScore();
+
+            System.out.println(String.format("%-10s %-19s %-21s %-7s %12.1f %10.3f %12.1f",
+                    resolution, params.getParam("layout"), params.getParam("kernel"),
+                    params.getParam("format"), framesPerSecond, 1e9 / framesPerSecond / pixels,
+                    getAllocatedBytesPerFrame(result)));
+        }
+    }
+
+    /**
+     * @return The normalised allocation rate reported by the GC profiler, NaN if it is missing
+     */
+    private static double getAllocatedBytesPerFrame(RunResult result) {
+        // the key carries a version dependent prefix
+        // JMH declares the map with the raw Result type, so the entries are not iterated
+        for (String key : result.getSecondaryResults().keySet()) {
+            if (key.endsWith("gc.alloc.rate.norm")) {
+                final Result<?> allocationRate = result.getSecondaryResults().get(key);
+                return allocationRate.getScore();
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,97 @@
+package com.ar4android.cameraAccessJME.benchmark;
+
+import com.ar4android.cameraAccessJME.CameraFrame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Builds synthetic camera frames in the layouts the two camera APIs deliver.
+ */
+public final class TestFrames {
+
+    /**
+     * The frame layouts which can be built.
+     */
+    public enum Layout {
+        /**
+         * A tightly packed NV21 array as delivered by {@code android.hardware.Camera}, wrapped
+         * into a heap buffer the way the Camera1 activity does it.
+         */
+        NV21,
+        /**
+         * YUV_420_888 as most Camera2 HALs deliver it: direct buffers whose rows are padded to
+         * a multiple of 64 bytes, with interleaved chroma (pixel stride 2) exposed as two
+         * overlapping plane buffers.
+         */
+        YUV_420_888_PADDED
+    }
+
+    private static final int ROW_ALIGNMENT = 64;
+
+    private TestFrames() {
+    }
+
+    /**
+     * Creates a frame filled with random samples.
+     */
+    public static CameraFrame create(Layout layout, int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final CameraFrame frame = new CameraFrame();
+        switch (layout) {
+            case NV21: {
+                final byte[] data = new byte[width * height * 3 / 2];
+                random.nextBytes(data);
+                frame.setNv21(ByteBuffer.wrap(data), width, height);
+                break;
+            }
+            case YUV_420_888_PADDED: {
+                final int rowStride = (width + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+                final ByteBuffer y = randomDirectBuffer(rowStride * height, random);
+                // the chroma rows hold width / 2 interleaved Cb/Cr pairs
+                final ByteBuffer uv = randomDirectBuffer(rowStride * height / 2, random);
+                uv.position(0);
+                final ByteBuffer u = uv.slice();
+                uv.position(1);
+                final ByteBuffer v = uv.slice();
+                frame.setPlanes(y, rowStride, u, v, rowStride, 2, width, height);
+                break;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Creates a 512x512 NV21 frame whose chroma plane holds every Cb/Cr combination once, Cb
+     * along the columns and Cr along the rows, with the luminance sweeping through all values
+     * as well.
+     */
+    public static CameraFrame createSweep() {
+        final int size = 512;
+        final byte[] data = new byte[size * size * 3 / 2];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                data[row * size + col] = (byte) (row * 3 + col * 5);
+            }
+        }
+        int ptr = size * size;
+        for (int cr = 0; cr < 256; cr++) {
+            for (int cb = 0; cb < 256; cb++) {
+                data[ptr++] = (byte) cr;
+                data[ptr++] = (byte) cb;
+            }
+        }
+        final CameraFrame frame = new CameraFrame();
+        frame.setNv21(ByteBuffer.wrap(data), size, size);
+        return frame;
+    }
+
+    private static ByteBuffer randomDirectBuffer(int size, Random random) {
+        final byte[] data = new byte[size];
+        random.nextBytes(data);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(data);
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -0,0 +1,107 @@
+package com.ar4android.cameraAccessJME.benchmark;
+
+import com.ar4android.cameraAccessJME.AbstractYuvConverter;
+import com.ar4android.cameraAccessJME.CameraFrame;
+import com.ar4android.cameraAccessJME.FixedPointYuvConverter;
+import com.ar4android.cameraAccessJME.LutYuvConverter;
+import com.ar4android.cameraAccessJME.ParallelYuvConverter;
+import com.ar4android.cameraAccessJME.YuvConverter;
+import com.jme3.texture.Image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many frames per second every conversion kernel converts, for the preview sizes
+ * the devices typically deliver and for both camera APIs' frame layouts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YuvConverterBenchmark {
+
+    /**
+     * The kernels under test.
+     */
+    public enum Kernel {
+        FIXED_POINT,
+        LUT,
+        PARALLEL_FIXED_POINT,
+        PARALLEL_LUT
+    }
+
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param
+    public TestFrames.Layout layout;
+
+    @Param
+    public Kernel kernel;
+
+    @Param({"RGB565"})
+    public String format;
+
+    private CameraFrame mFrame;
+    private YuvConverter mConverter;
+    private ByteBuffer mOut;
+
+    @Setup
+    public void setUp() {
+        final int separator = resolution.indexOf('x');
+        final int width = Integer.parseInt(resolution.substring(0, separator));
+        final int height = Integer.parseInt(resolution.substring(separator + 1));
+
+        mFrame = TestFrames.create(layout, width, height, 42);
+
+        final AbstractYuvConverter yuvKernel;
+        switch (kernel) {
+            case FIXED_POINT:
+            case PARALLEL_FIXED_POINT:
+                yuvKernel = new FixedPointYuvConverter();
+                break;
+            default:
+                yuvKernel = new LutYuvConverter();
+                break;
+        }
+        yuvKernel.setOutputFormat(Image.Format.valueOf(format));
+        if (kernel == Kernel.PARALLEL_FIXED_POINT || kernel == Kernel.PARALLEL_LUT) {
+            mConverter = new ParallelYuvConverter(yuvKernel);
+        } else {
+            mConverter = yuvKernel;
+        }
+
+        mOut = ByteBuffer.allocateDirect(mConverter.getOutputWidth(width, height)
+                * mConverter.getOutputHeight(width, height)
+                * mConverter.getOutputFormat().getBitsPerPixel() / 8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mConverter instanceof ParallelYuvConverter) {
+            ((ParallelYuvConverter) mConverter).shutdown();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        mConverter.convert(mFrame, mOut);
+        return mOut;
+    }
+}